@@ -0,0 +1,134 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * HTTPS server on localhost, with a key pair from a bundled key store, answering every request with a fixed body.
+ * It counts the connections it accepts, to tell new connections from pooled ones.
+ */
+class LocalHttpsServer {
+
+    static final char[] PASSWORD = "secretpassword".toCharArray();
+    private static final String ALIAS = "server";
+
+    static {
+        // without it, delayed ACKs add ~40ms to every response on a kept-alive connection
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final KeyStore keyStore;
+    private final HttpsServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /**
+     * @param keyStoreResource class path resource of the JKS key store holding the server's key
+     * @param bodySize size of the response body
+     * @param threads number of request threads
+     */
+    LocalHttpsServer(final String keyStoreResource, final int bodySize, final int threads)
+            throws IOException, GeneralSecurityException {
+        keyStore = loadKeyStore(keyStoreResource);
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        final byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+        executor = Executors.newFixedThreadPool(threads);
+        server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
+            @Override
+            public void configure(HttpsParameters params) {
+                // called once per accepted connection, before its handshake
+                connectionCount.incrementAndGet();
+                super.configure(params);
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    drain(exchange.getRequestBody());
+                    if ("HEAD".equals(exchange.getRequestMethod())) {
+                        // writing a body would make the server drop the connection
+                        exchange.sendResponseHeaders(200, -1);
+                    } else {
+                        exchange.sendResponseHeaders(200, body.length);
+                        exchange.getResponseBody().write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    URL getUrl(final String path) throws MalformedURLException {
+        return new URL("https://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    /**
+     * @return number of connections accepted so far, including the ones that failed their handshake
+     */
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    X509Certificate getCertificate() throws GeneralSecurityException {
+        return (X509Certificate) keyStore.getCertificate(ALIAS);
+    }
+
+    private static KeyStore loadKeyStore(final String resource) throws IOException, GeneralSecurityException {
+        final InputStream in = LocalHttpsServer.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        try {
+            final KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(in, PASSWORD);
+            return keyStore;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        final byte[] buffer = new byte[512];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        in.close();
+    }
+}
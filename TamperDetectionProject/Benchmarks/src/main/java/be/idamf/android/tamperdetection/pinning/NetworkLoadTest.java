@@ -0,0 +1,288 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import com.squareup.okhttp.ConnectionPool;
+
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.idamf.android.tamperdetection.data.Endpoint;
+import be.idamf.android.tamperdetection.data.VerificationResult;
+import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
+
+/**
+ * Load test for the network check path: {@link PinnedHttpClient#verify(Endpoint)} against local HTTPS servers.
+ * One server presents the certificate the client trusts, like the bundled truststore does on the device,
+ * the other one an impostor's; the platform's CAs trust neither. Each scenario reports throughput, p50/p99
+ * request latency, p50/p99 TLS handshake time over the new connections only, and the connection reuse rate.
+ * The run fails when pinning lets an impostor through, an impostor's connection is reused, or pooling
+ * stops working.
+ * <p/>
+ * Run with: ../gradlew :Benchmarks:loadTest -PloadTestArgs="requests=5000 concurrency=16 minReuse=0.9"
+ */
+public final class NetworkLoadTest {
+
+    private static final int BODY_SIZE = 2048;
+
+    private final int requests;
+    private final int concurrency;
+    private final double minReuse;
+    private final List<String> failures = new ArrayList<String>();
+
+    private NetworkLoadTest(final int requests, final int concurrency, final double minReuse) {
+        this.requests = requests;
+        this.concurrency = concurrency;
+        this.minReuse = minReuse;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = 5000;
+        int concurrency = 16;
+        double minReuse = 0.9;
+        for (String arg : args) {
+            final String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            } else if ("requests".equals(option[0])) {
+                requests = Integer.parseInt(option[1]);
+            } else if ("concurrency".equals(option[0])) {
+                concurrency = Integer.parseInt(option[1]);
+            } else if ("minReuse".equals(option[0])) {
+                minReuse = Double.parseDouble(option[1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+
+        final NetworkLoadTest loadTest = new NetworkLoadTest(requests, concurrency, minReuse);
+        final boolean passed = loadTest.run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        final LocalHttpsServer genuine = new LocalHttpsServer("/loadtest/genuine.jks", BODY_SIZE, concurrency);
+        final LocalHttpsServer impostor = new LocalHttpsServer("/loadtest/impostor.jks", BODY_SIZE, concurrency);
+        genuine.start();
+        impostor.start();
+        try {
+            final X509Certificate genuineCertificate = genuine.getCertificate();
+            final List<String> genuinePins = Collections.singletonList(spkiPin(genuineCertificate));
+            final List<String> noPins = Collections.emptyList();
+            System.out.printf(Locale.US, "%d requests per scenario, concurrency %d%n%n", requests, concurrency);
+            System.out.printf(Locale.US, "%-14s %8s %9s %9s %9s %9s %9s %7s%n", "scenario", "ok", "req/s",
+                    "hs p50", "hs p99", "req p50", "req p99", "reuse");
+            System.out.println("(hs: TLS handshake of the new connections, - when every connection was reused)");
+
+            // the anchors of the app: only the genuine certificate, like truststore.bks
+            Scenario pinned = run("pinned", newClient(genuineCertificate), genuine,
+                    new Endpoint("genuine", genuine.getUrl("/"), genuinePins, true, Endpoint.DEFAULT_TIMEOUT_MILLIS));
+            expect(pinned.successes == requests, "pinned: " + (requests - pinned.successes) + " requests failed");
+            expect(pinned.matched == requests, "pinned: pins matched on " + pinned.matched + " requests only");
+            expect(pinned.reuseRate() >= minReuse, "pinned: connection reuse " + pinned.reuseRate() + " < " + minReuse);
+
+            Scenario anchorsOnly = run("anchors-only", newClient(genuineCertificate), genuine,
+                    new Endpoint("genuine", genuine.getUrl("/"), noPins, true, Endpoint.DEFAULT_TIMEOUT_MILLIS));
+            expect(anchorsOnly.successes == requests, "anchors-only: " + (requests - anchorsOnly.successes)
+                    + " requests failed");
+            expect(anchorsOnly.reuseRate() >= minReuse, "anchors-only: connection reuse " + anchorsOnly.reuseRate()
+                    + " < " + minReuse);
+
+            Scenario untrusted = run("untrusted", newClient(genuineCertificate), impostor,
+                    new Endpoint("impostor", impostor.getUrl("/"), noPins, true, Endpoint.DEFAULT_TIMEOUT_MILLIS));
+            expect(untrusted.successes == 0, "untrusted: impostor accepted " + untrusted.successes + " times");
+
+            // an impostor with a certificate the anchors trust, e.g. from a compromised CA: only the pins stop it
+            Scenario mismatch = run("pin-mismatch", newClient(genuineCertificate, impostor.getCertificate()), impostor,
+                    new Endpoint("impostor", impostor.getUrl("/"), genuinePins, true, Endpoint.DEFAULT_TIMEOUT_MILLIS));
+            expect(mismatch.successes == 0, "pin-mismatch: impostor accepted " + mismatch.successes + " times");
+            expect(mismatch.mismatched == requests, "pin-mismatch: mismatch reported on " + mismatch.mismatched
+                    + " requests only");
+            expect(mismatch.connections >= requests, "pin-mismatch: " + (requests - mismatch.connections)
+                    + " requests reused a mismatched connection");
+
+            // the unpinned path of the network check: the platform's CAs don't know the self-signed server
+            Scenario platform = run("platform-ca", newClient(genuineCertificate), genuine,
+                    new Endpoint("genuine", genuine.getUrl("/"), noPins, false, Endpoint.DEFAULT_TIMEOUT_MILLIS));
+            expect(platform.successes == 0, "platform-ca: self-signed server accepted " + platform.successes
+                    + " times");
+            expect(platform.mismatched == 0, "platform-ca: " + platform.mismatched
+                    + " failures reported as a pin mismatch");
+
+            prewarm(genuine, genuineCertificate);
+        } finally {
+            genuine.stop();
+            impostor.stop();
+        }
+
+        System.out.println();
+        for (String failure : failures) {
+            System.out.println("FAILED " + failure);
+        }
+        System.out.println(failures.isEmpty() ? "PASSED" : failures.size() + " check(s) failed");
+        return failures.isEmpty();
+    }
+
+    private Scenario run(final String name, final PinnedHttpClient client, final LocalHttpsServer server,
+                         final Endpoint endpoint) throws InterruptedException {
+        // one warm-up request, so JIT and the first handshake don't skew the numbers
+        client.verify(endpoint);
+        final int connectionsBefore = server.getConnectionCount();
+
+        final long[] handshakeMicros = new long[requests];
+        final long[] elapsedMillis = new long[requests];
+        final VerificationResult[] results = new VerificationResult[requests];
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final long start = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < requests) {
+                            results[i] = client.verify(endpoint);
+                            handshakeMicros[i] = results[i].getHandshakeMicros();
+                            elapsedMillis[i] = results[i].getElapsedMillis();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "NetworkLoadTest #" + t);
+            worker.start();
+        }
+        done.await();
+        final long wallNanos = System.nanoTime() - start;
+
+        final Scenario scenario = new Scenario(requests, server.getConnectionCount() - connectionsBefore);
+        for (VerificationResult result : results) {
+            if (result.isSuccess()) {
+                scenario.successes++;
+            }
+            if (result.getPinStatus() == VerificationResult.PinStatus.MATCHED) {
+                scenario.matched++;
+            } else if (result.getPinStatus() == VerificationResult.PinStatus.MISMATCHED) {
+                scenario.mismatched++;
+            }
+        }
+        // pooled connections had no handshake: they would only pull the percentiles down to 0
+        final long[] newConnections = handshakesOnly(handshakeMicros);
+        Arrays.sort(newConnections);
+        Arrays.sort(elapsedMillis);
+        System.out.printf(Locale.US, "%-14s %8d %9.0f %9s %9s %7dms %7dms %6.1f%%%n", name, scenario.successes,
+                requests / (wallNanos / (double) TimeUnit.SECONDS.toNanos(1)),
+                formatMicros(newConnections, 50), formatMicros(newConnections, 99),
+                percentile(elapsedMillis, 50), percentile(elapsedMillis, 99), scenario.reuseRate() * 100);
+        client.evictConnections();
+        return scenario;
+    }
+
+    /**
+     * The network check of the app with {@link ConnectionPrewarmer}: warm up, then the first real request
+     * should find the warm connection in the pool and skip DNS, connect and handshake.
+     */
+    private void prewarm(final LocalHttpsServer server, final X509Certificate anchor) throws Exception {
+        final PinnedHttpClient client = newClient(anchor);
+        final ConnectionPrewarmer prewarmer = new ConnectionPrewarmer(client, server.getUrl("/"));
+        final int connectionsBefore = server.getConnectionCount();
+        prewarmer.start();
+        try {
+            final VerificationResult warmup = prewarmer.awaitWarm(Endpoint.DEFAULT_TIMEOUT_MILLIS);
+            expect(warmup != null && warmup.isSuccess(), "prewarm: warm-up failed: " + warmup);
+            expect(client.getPooledConnectionCount() == 1, "prewarm: " + client.getPooledConnectionCount()
+                    + " pooled connections after the warm-up instead of 1");
+            final VerificationResult first = client.verify(server.getUrl("/"));
+            expect(first.isSuccess(), "prewarm: first request failed: " + first.getError());
+            expect(first.getHandshakeMicros() == VerificationResult.NO_HANDSHAKE, "prewarm: first request did a "
+                    + first.getHandshakeMicros() + "us handshake instead of reusing the warm connection");
+            final int connections = server.getConnectionCount() - connectionsBefore;
+            expect(connections == 1, "prewarm: " + connections + " connections opened instead of 1");
+            System.out.printf(Locale.US,
+                    "%nprewarm: warm-up %dms, handshake %dus, first request %dms, %d connection(s)%n",
+                    warmup != null ? warmup.getElapsedMillis() : -1, warmup != null ? warmup.getHandshakeMicros() : -1,
+                    first.getElapsedMillis(), connections);
+        } finally {
+            prewarmer.stop();
+            client.evictConnections();
+        }
+    }
+
+    private void expect(final boolean condition, final String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    /**
+     * A client whose app anchors are the given certificates, with its own pool.
+     */
+    private PinnedHttpClient newClient(final X509Certificate... anchors) throws Exception {
+        final KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        for (int i = 0; i < anchors.length; i++) {
+            trustStore.setCertificateEntry("anchor" + i, anchors[i]);
+        }
+        return new PinnedHttpClient(PinningTrustManager.platformTrustManager(trustStore),
+                new ConnectionPool(concurrency, TimeUnit.MINUTES.toMillis(5)));
+    }
+
+    private static String spkiPin(final X509Certificate certificate) throws Exception {
+        return TamperDetectionUtils.hexify(
+                MessageDigest.getInstance("SHA-256").digest(certificate.getPublicKey().getEncoded()));
+    }
+
+    private static long[] handshakesOnly(final long[] handshakeMicros) {
+        int count = 0;
+        for (long micros : handshakeMicros) {
+            if (micros != VerificationResult.NO_HANDSHAKE) {
+                count++;
+            }
+        }
+        final long[] handshakes = new long[count];
+        int i = 0;
+        for (long micros : handshakeMicros) {
+            if (micros != VerificationResult.NO_HANDSHAKE) {
+                handshakes[i++] = micros;
+            }
+        }
+        return handshakes;
+    }
+
+    private static String formatMicros(final long[] sorted, final int percentile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        return String.format(Locale.US, "%.1fms", percentile(sorted, percentile) / 1000.0);
+    }
+
+    private static long percentile(final long[] sorted, final int percentile) {
+        final int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static final class Scenario {
+        private final int requests;
+        private final int connections;
+        private int successes;
+        private int matched;
+        private int mismatched;
+
+        Scenario(final int requests, final int connections) {
+            this.requests = requests;
+            this.connections = connections;
+        }
+
+        double reuseRate() {
+            return requests == 0 ? 0 : Math.max(0, 1 - connections / (double) requests);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package be.idamf.android.tamperdetection.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import be.idamf.android.tamperdetection.data.CommandResult;
+
+/**
+ * Cost of running 'which su': a fork per command, a persistent shell session, or no process at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecShellBenchmark {
+
+    private ExecShell execShell;
+    private ShellSession shellSession;
+    private PathResolver pathResolver;
+
+    @Setup
+    public void setUp() {
+        execShell = new ExecShell();
+        shellSession = new ShellSession();
+        pathResolver = new PathResolver();
+    }
+
+    @TearDown
+    public void tearDown() {
+        shellSession.close();
+    }
+
+    @Benchmark
+    public CommandResult forkWhich() throws Exception {
+        return execShell.execute("which", "su").get();
+    }
+
+    @Benchmark
+    public CommandResult shellSessionWhich() throws Exception {
+        return shellSession.execute("which su");
+    }
+
+    @Benchmark
+    public List<String> resolveInProcess() {
+        return pathResolver.resolve("su");
+    }
+}
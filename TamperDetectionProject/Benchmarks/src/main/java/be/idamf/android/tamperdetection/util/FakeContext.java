@@ -0,0 +1,86 @@
+package be.idamf.android.tamperdetection.util;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+
+/**
+ * Context for benchmarks: an installed package signed with the bundled debug certificate.
+ */
+class FakeContext extends Context {
+
+    static final String PACKAGE_NAME = "be.idamf.android.tamperdetection";
+
+    /**
+     * Fingerprints of src/main/resources/debug-certificate.pem, as printed by keytool.
+     */
+    static final String DEBUG_CERTIFICATE_SHA1 = "A6:E7:07:48:96:6A:8E:8D:CE:5A:95:90:2B:03:5C:00:C5:68:50:E4";
+    static final String DEBUG_CERTIFICATE_SHA256 =
+            "7B:A1:95:0A:FB:C9:57:9E:50:C9:FB:56:84:AC:3E:6E:9A:65:73:EE:F8:DC:CB:7E:44:BF:15:A8:ED:77:D8:2A";
+
+    private final ApplicationInfo applicationInfo = new ApplicationInfo();
+    private final PackageInfo packageInfo = new PackageInfo();
+    private final File filesDir;
+    private final PackageManager packageManager = new PackageManager() {
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+            if (!PACKAGE_NAME.equals(packageName)) {
+                throw new NameNotFoundException(packageName);
+            }
+            return packageInfo;
+        }
+
+        @Override
+        public String getInstallerPackageName(String packageName) {
+            return "com.android.vending";
+        }
+    };
+
+    FakeContext(final File filesDir) throws IOException, CertificateException {
+        this.filesDir = filesDir;
+        applicationInfo.packageName = PACKAGE_NAME;
+        packageInfo.packageName = PACKAGE_NAME;
+        packageInfo.lastUpdateTime = 1383580800000L;
+        packageInfo.signatures = new Signature[] { new Signature(loadDebugCertificate()) };
+    }
+
+    /**
+     * @return the DER encoding of the bundled debug certificate, the same bytes Signature.toByteArray() returns
+     */
+    static byte[] loadDebugCertificate() throws IOException, CertificateException {
+        final InputStream in = FakeContext.class.getResourceAsStream("/debug-certificate.pem");
+        try {
+            return CertificateFactory.getInstance("X.509").generateCertificate(in).getEncoded();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+        return packageManager;
+    }
+
+    @Override
+    public String getPackageName() {
+        return PACKAGE_NAME;
+    }
+
+    @Override
+    public ApplicationInfo getApplicationInfo() {
+        return applicationInfo;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+}
@@ -0,0 +1,70 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A throw-away directory tree that mimics the places root detection looks at,
+ * filled with a realistic number of innocent files.
+ */
+class FakeFileSystem {
+
+    static final String[] PLACES = {"/sbin/", "/system/bin/", "/system/xbin/", "/data/local/xbin/",
+            "/data/local/bin/", "/system/sd/xbin/", "/system/bin/failsafe/", "/data/local/",
+            "/system/app/"};
+
+    private final File root;
+
+    FakeFileSystem(final int filesPerDirectory) throws IOException {
+        root = File.createTempFile("fake-root", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Cannot create " + root);
+        }
+        for (String place : PLACES) {
+            final File directory = new File(root, place);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            for (int i = 0; i < filesPerDirectory; i++) {
+                touch(new File(directory, "binary" + i));
+            }
+        }
+    }
+
+    /**
+     * @return the candidate places, rooted in the fake file system
+     */
+    List<String> places() {
+        final List<String> places = new ArrayList<String>(PLACES.length);
+        for (String place : PLACES) {
+            places.add(root.getPath() + place);
+        }
+        return places;
+    }
+
+    void addFile(final String place, final String name) throws IOException {
+        touch(new File(root.getPath() + place, name));
+    }
+
+    void delete() {
+        delete(root);
+    }
+
+    private static void touch(final File file) throws IOException {
+        if (!file.exists() && !file.createNewFile()) {
+            throw new IOException("Cannot create " + file);
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,83 @@
+package be.idamf.android.tamperdetection.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hooking framework scan over a generated /proc/self/maps of a large app, with or without
+ * a Frida agent mapped near the end. The verdicts are checked by {@link ScannerFixtureCheck}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HookScanBenchmark {
+
+    /**
+     * Number of lines in the maps file.
+     */
+    @Param({"2000", "20000"})
+    public int lines;
+
+    @Param({"false", "true"})
+    public boolean hooked;
+
+    private File maps;
+    private HookScanner scanner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        maps = ScannerFixtureCheck.writeMapsFixture(lines, hooked);
+        scanner = new HookScanner(maps.getPath(), HookScanner.DEFAULT_SIGNATURES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        maps.delete();
+    }
+
+    @Benchmark
+    public boolean isHookingFrameworkPresent() {
+        return TamperDetectionUtils.isHookingFrameworkPresent(scanner);
+    }
+
+    /**
+     * A line reader looking for every signature in every line, for comparison.
+     */
+    @Benchmark
+    public boolean containsPerLine() throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(maps));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                for (String signature : HookScanner.DEFAULT_SIGNATURES) {
+                    if (line.contains(signature)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+}
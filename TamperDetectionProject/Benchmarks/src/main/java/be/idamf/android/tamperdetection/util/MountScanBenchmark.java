@@ -0,0 +1,94 @@
+package be.idamf.android.tamperdetection.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mount check against copies of /proc/mounts and /proc/self/mountinfo of a stock and of rooted devices,
+ * from src/main/resources/mounts. The verdicts on the fixtures are checked by {@link ScannerFixtureCheck}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MountScanBenchmark {
+
+    /**
+     * The device: "stock", or the way it was rooted.
+     */
+    @Param({"stock", "rw-system", "bind-su", "overlay-xbin"})
+    public String fixture;
+
+    private File mounts;
+    private File mountInfo;
+    private MountScanner scanner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mounts = ScannerFixtureCheck.copyMountFixture(fixture + ".mounts", "stock.mounts");
+        mountInfo = ScannerFixtureCheck.copyMountFixture(fixture + ".mountinfo", "stock.mountinfo");
+        scanner = new MountScanner(mounts.getPath(), mountInfo.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mounts.delete();
+        mountInfo.delete();
+    }
+
+    @Benchmark
+    public boolean isRootedMounts() {
+        return RootDetectionUtils.isRootedMounts(scanner);
+    }
+
+    /**
+     * A line reader splitting every line into Strings, for comparison.
+     */
+    @Benchmark
+    public boolean splitEveryLine() throws IOException {
+        return splitEveryLine(mounts, 1, 3) || splitEveryLine(mountInfo, 4, 5);
+    }
+
+    private static boolean splitEveryLine(final File file, final int mountPointField, final int optionsField)
+            throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(" ");
+                if (fields.length <= optionsField) {
+                    continue;
+                }
+                final String mountPoint = fields[mountPointField];
+                if ("/system".equals(mountPoint) && ("," + fields[optionsField] + ",").contains(",rw,")) {
+                    return true;
+                } else if (mountPoint.equals("/system/bin") || mountPoint.startsWith("/system/bin/")
+                        || mountPoint.equals("/system/xbin") || mountPoint.startsWith("/system/xbin/")) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+}
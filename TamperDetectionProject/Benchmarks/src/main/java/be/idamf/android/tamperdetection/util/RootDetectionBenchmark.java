@@ -0,0 +1,96 @@
+package be.idamf.android.tamperdetection.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Root detection checks. The binary scan runs against a fake file system root;
+ * isRooted(true) runs against the host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RootDetectionBenchmark {
+
+    /**
+     * Whether an su binary is planted in the fake file system.
+     */
+    @Param({"false", "true"})
+    public boolean rooted;
+
+    /**
+     * Number of suspicious names looked for: the defaults, or a large denylist.
+     */
+    @Param({"4", "400"})
+    public int names;
+
+    private FakeFileSystem fileSystem;
+    private BinaryScanner scanner;
+    private List<String> places;
+    private List<String> binaries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileSystem = new FakeFileSystem(200);
+        if (rooted) {
+            fileSystem.addFile("/system/xbin/", "su");
+        }
+        places = fileSystem.places();
+        binaries = new ArrayList<String>(Arrays.asList("Superuser", "Superuser.apk", "su", "busybox"));
+        for (int i = binaries.size(); i < names; i++) {
+            binaries.add("rootkit" + i);
+        }
+        scanner = new BinaryScanner(places, binaries, Arrays.asList("su", "busybox"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileSystem.delete();
+    }
+
+    @Benchmark
+    public boolean isRootedBinariesPresent() {
+        return RootDetectionUtils.isRootedBinariesPresent(scanner);
+    }
+
+    /**
+     * The previous implementation: one stat per directory and name pair, for comparison.
+     */
+    @Benchmark
+    public boolean statEveryPair() {
+        for (String binary : binaries) {
+            for (String place : places) {
+                if (new File(place + binary).exists()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean isRootedExtended() {
+        return RootDetectionUtils.isRooted(true);
+    }
+}
@@ -0,0 +1,205 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Checks the verdicts of the scanners on the fixtures their benchmarks time, so the benchmarks only measure:
+ * the mount check against the copies of /proc/mounts and /proc/self/mountinfo of a stock and of rooted devices,
+ * from src/main/resources/mounts, the hooking framework scan over generated /proc/self/maps files,
+ * with and without a Frida agent, and the emulator rules against the Build values of real devices and
+ * emulators, from src/main/resources/build. The run fails when a verdict is wrong.
+ * <p/>
+ * Run with: ../gradlew :Benchmarks:fixtureCheck
+ */
+public final class ScannerFixtureCheck {
+
+    /**
+     * The devices: "stock", or the way it was rooted.
+     */
+    static final String[] MOUNT_FIXTURES = {"stock", "rw-system", "bind-su", "overlay-xbin"};
+
+    /**
+     * Number of lines of the generated maps files.
+     */
+    static final int[] MAPS_LINES = {2000, 20000};
+
+    /**
+     * Build values of real devices, none of which may be taken for an emulator.
+     */
+    static final String[] DEVICE_FIXTURES = {"nexus-5", "pixel-7", "galaxy-s21", "candy-rom", "unbranded-tablet"};
+
+    /**
+     * Build values of emulators.
+     */
+    static final String[] EMULATOR_FIXTURES = {"sdk-emulator", "sdk-gphone", "genymotion", "bluestacks", "nox", "andy"};
+
+    private static final String[] LIBRARIES = {"/system/lib64/libart.so", "/system/lib64/libc.so",
+            "/system/framework/arm64/boot-framework.oat", "/data/app/be.idamf.android.tamperdetection-1/base.apk",
+            "/dev/ashmem/dalvik-main space (region space)", "[anon:libc_malloc]", "", "[stack]"};
+
+    private final List<String> failures = new ArrayList<String>();
+
+    private ScannerFixtureCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        final ScannerFixtureCheck check = new ScannerFixtureCheck();
+        final boolean passed = check.run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws IOException {
+        for (String fixture : MOUNT_FIXTURES) {
+            checkMounts(fixture);
+        }
+        for (int lines : MAPS_LINES) {
+            checkMaps(lines, false);
+            checkMaps(lines, true);
+        }
+        for (String fixture : DEVICE_FIXTURES) {
+            checkBuild(fixture, false);
+        }
+        for (String fixture : EMULATOR_FIXTURES) {
+            checkBuild(fixture, true);
+        }
+
+        System.out.println();
+        for (String failure : failures) {
+            System.out.println("FAILED " + failure);
+        }
+        System.out.println(failures.isEmpty() ? "PASSED" : failures.size() + " check(s) failed");
+        return failures.isEmpty();
+    }
+
+    private void checkMounts(final String fixture) throws IOException {
+        final File mounts = copyMountFixture(fixture + ".mounts", "stock.mounts");
+        final File mountInfo = copyMountFixture(fixture + ".mountinfo", "stock.mountinfo");
+        try {
+            final MountScanner scanner = new MountScanner(mounts.getPath(), mountInfo.getPath());
+            final boolean expected = !"stock".equals(fixture);
+            final boolean rooted = RootDetectionUtils.isRootedMounts(scanner);
+            System.out.printf(Locale.US, "%-24s %s%n", "mounts " + fixture, rooted ? "rooted: " + scanner.findFirst() : "clean");
+            expect(rooted == expected, "mounts " + fixture + ": expected " + (expected ? "rooted" : "clean")
+                    + ", found " + scanner.findFirst());
+        } finally {
+            mounts.delete();
+            mountInfo.delete();
+        }
+    }
+
+    private void checkMaps(final int lines, final boolean hooked) throws IOException {
+        final File maps = writeMapsFixture(lines, hooked);
+        try {
+            final HookScanner scanner = new HookScanner(maps.getPath(), HookScanner.DEFAULT_SIGNATURES);
+            final boolean present = TamperDetectionUtils.isHookingFrameworkPresent(scanner);
+            final String name = "maps " + lines + (hooked ? " hooked" : "");
+            System.out.printf(Locale.US, "%-24s %s%n", name, present ? "hooked: " + scanner.findFirst() : "clean");
+            expect(present == hooked, name + ": expected " + (hooked ? "hooked" : "clean") + ", found "
+                    + scanner.findFirst());
+        } finally {
+            maps.delete();
+        }
+    }
+
+    private void checkBuild(final String fixture, final boolean expected) throws IOException {
+        final String[] values = readBuildFixture(fixture);
+        final EmulatorDetector detector = EmulatorDetector.getDefault();
+        final int score = detector.score(values);
+        final boolean emulator = detector.isEmulator(values);
+        System.out.printf(Locale.US, "%-24s %s, score %d%n", "build " + fixture, emulator ? "emulator" : "device", score);
+        expect(emulator == expected, "build " + fixture + ": expected " + (expected ? "emulator" : "device")
+                + ", score " + score);
+    }
+
+    private void expect(final boolean condition, final String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    /**
+     * Copy a fixture from src/main/resources/mounts to a temporary file, as the scanner reads files.
+     *
+     * @param resource name of the fixture
+     * @param fallback name of the fixture to use when there is none, e.g. the stock one
+     * @return the copy; delete it when done
+     */
+    static File copyMountFixture(final String resource, final String fallback) throws IOException {
+        InputStream in = ScannerFixtureCheck.class.getResourceAsStream("/mounts/" + resource);
+        if (in == null) {
+            in = ScannerFixtureCheck.class.getResourceAsStream("/mounts/" + fallback);
+        }
+        final File file = File.createTempFile("mounts", "");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Write a /proc/self/maps of a large app to a temporary file.
+     *
+     * @param lines number of lines
+     * @param hooked true to map a Frida agent near the end
+     * @return the file; delete it when done
+     */
+    static File writeMapsFixture(final int lines, final boolean hooked) throws IOException {
+        final File maps = File.createTempFile("maps", "");
+        final Writer out = new FileWriter(maps);
+        try {
+            long address = 0x12c00000L;
+            for (int i = 0; i < lines; i++) {
+                final String path = hooked && i == lines - 10
+                        ? "/data/local/tmp/re.frida.server/frida-agent-64.so" : LIBRARIES[i % LIBRARIES.length];
+                out.write(String.format(Locale.US, "%x-%x r-xp %08x fd:00 %d %s\n",
+                        address, address + 0x1000, i * 0x1000, 1000 + i, path));
+                address += 0x1000;
+            }
+        } finally {
+            out.close();
+        }
+        return maps;
+    }
+
+    /**
+     * Read the Build values of a device from src/main/resources/build.
+     *
+     * @param fixture name of the device
+     * @return the values, indexed by {@link EmulatorDetector.Field#ordinal()}
+     */
+    static String[] readBuildFixture(final String fixture) throws IOException {
+        final InputStream in = ScannerFixtureCheck.class.getResourceAsStream("/build/" + fixture + ".properties");
+        if (in == null) {
+            throw new IOException("No Build values for " + fixture);
+        }
+        final Properties properties = new Properties();
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        final String[] values = new String[EmulatorDetector.Field.values().length];
+        for (EmulatorDetector.Field field : EmulatorDetector.Field.values()) {
+            values[field.ordinal()] = properties.getProperty(field.name());
+        }
+        return values;
+    }
+}
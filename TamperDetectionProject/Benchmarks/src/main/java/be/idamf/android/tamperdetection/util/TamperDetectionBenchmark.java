@@ -0,0 +1,81 @@
+package be.idamf.android.tamperdetection.util;
+
+import android.content.pm.Signature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing certificate checks, against a fake package signed with the bundled debug certificate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TamperDetectionBenchmark {
+
+    private FakeContext context;
+    private Signature signature;
+    private X509Certificate certificate;
+    private byte[] sha1;
+    private SigningKeyVerifier verifier;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = new FakeContext(new File(System.getProperty("java.io.tmpdir")));
+        signature = new Signature(FakeContext.loadDebugCertificate());
+        certificate = TamperDetectionUtils.generateX509CertificateFromSignature(signature);
+        sha1 = TamperDetectionUtils.getCertificateSHA1(certificate);
+        verifier = new SigningKeyVerifier(FakeContext.DEBUG_CERTIFICATE_SHA256);
+    }
+
+    @Benchmark
+    public String hexify() {
+        return TamperDetectionUtils.hexify(sha1);
+    }
+
+    @Benchmark
+    public byte[] getCertificateSHA1() throws Exception {
+        return TamperDetectionUtils.getCertificateSHA1(certificate);
+    }
+
+    @Benchmark
+    public X509Certificate parseCertificateFromSignature() throws Exception {
+        return TamperDetectionUtils.generateX509CertificateFromSignature(signature);
+    }
+
+    /**
+     * Building the snapshot: package lookup, certificate parsing and both digests, i.e. the first check in a process.
+     */
+    @Benchmark
+    public SigningCertificateSnapshot newSigningCertificateSnapshot() throws Exception {
+        return TamperDetectionUtils.newSigningCertificateSnapshot(context);
+    }
+
+    /**
+     * Every check after the first one in a process.
+     */
+    @Benchmark
+    public boolean isValidSigningKey() {
+        return TamperDetectionUtils.isValidSigningKey(context, verifier);
+    }
+
+    @Benchmark
+    public boolean isRunningInEmulator() {
+        return EmulatorDetector.getDefault().isEmulator(EmulatorDetector.readBuildFields());
+    }
+}
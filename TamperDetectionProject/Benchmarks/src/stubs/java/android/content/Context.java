@@ -0,0 +1,34 @@
+package android.content;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+
+import java.io.File;
+
+/**
+ * Stand-in for android.content.Context on a plain JVM, holding only what the detection utilities
+ * and the pinning classes use.
+ */
+public abstract class Context {
+    public abstract PackageManager getPackageManager();
+
+    public abstract String getPackageName();
+
+    public abstract ApplicationInfo getApplicationInfo();
+
+    public abstract File getFilesDir();
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public Resources getResources() {
+        throw new UnsupportedOperationException("No resources on a plain JVM");
+    }
+
+    public AssetManager getAssets() {
+        throw new UnsupportedOperationException("No assets on a plain JVM");
+    }
+}
@@ -0,0 +1,11 @@
+package android.content.pm;
+
+/**
+ * Stand-in for android.content.pm.ApplicationInfo on a plain JVM.
+ */
+public class ApplicationInfo {
+    public static final int FLAG_DEBUGGABLE = 1 << 1;
+
+    public int flags;
+    public String packageName;
+}
@@ -0,0 +1,11 @@
+package android.content.pm;
+
+/**
+ * Stand-in for android.content.pm.PackageInfo on a plain JVM.
+ */
+public class PackageInfo {
+    public String packageName;
+    public long firstInstallTime;
+    public long lastUpdateTime;
+    public Signature[] signatures;
+}
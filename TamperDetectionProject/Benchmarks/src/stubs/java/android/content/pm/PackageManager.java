@@ -0,0 +1,21 @@
+package android.content.pm;
+
+/**
+ * Stand-in for android.content.pm.PackageManager on a plain JVM, holding only what the detection utilities use.
+ */
+public abstract class PackageManager {
+    public static final int GET_SIGNATURES = 0x00000040;
+
+    public static class NameNotFoundException extends Exception {
+        public NameNotFoundException() {
+        }
+
+        public NameNotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public abstract PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException;
+
+    public abstract String getInstallerPackageName(String packageName);
+}
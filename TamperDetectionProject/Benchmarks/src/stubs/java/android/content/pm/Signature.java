@@ -0,0 +1,16 @@
+package android.content.pm;
+
+/**
+ * Stand-in for android.content.pm.Signature on a plain JVM: wraps the DER encoded certificate.
+ */
+public class Signature {
+    private final byte[] signature;
+
+    public Signature(byte[] signature) {
+        this.signature = signature.clone();
+    }
+
+    public byte[] toByteArray() {
+        return signature.clone();
+    }
+}
@@ -0,0 +1,13 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stand-in for android.content.res.AssetManager on a plain JVM.
+ */
+public abstract class AssetManager {
+    public abstract String[] list(String path) throws IOException;
+
+    public abstract InputStream open(String fileName) throws IOException;
+}
@@ -0,0 +1,10 @@
+package android.content.res;
+
+import java.io.InputStream;
+
+/**
+ * Stand-in for android.content.res.Resources on a plain JVM.
+ */
+public abstract class Resources {
+    public abstract InputStream openRawResource(int id);
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * Stand-in for android.os.Build on a plain JVM.
+ * Every value can be overridden with a system property, e.g. -Dandroid.os.Build.TAGS=test-keys.
+ * The fields are deliberately not compile-time constants, so they are not inlined into the code under test.
+ */
+public class Build {
+    public static final String BOARD = property("BOARD", "msm8974");
+    public static final String BRAND = property("BRAND", "google");
+    public static final String DEVICE = property("DEVICE", "hammerhead");
+    public static final String FINGERPRINT = property("FINGERPRINT",
+            "google/hammerhead/hammerhead:4.4/KRT16M/893803:user/release-keys");
+    public static final String HARDWARE = property("HARDWARE", "hammerhead");
+    public static final String MANUFACTURER = property("MANUFACTURER", "LGE");
+    public static final String MODEL = property("MODEL", "Nexus 5");
+    public static final String PRODUCT = property("PRODUCT", "hammerhead");
+    public static final String TAGS = property("TAGS", "release-keys");
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty("android.os.Build." + name, defaultValue);
+    }
+}
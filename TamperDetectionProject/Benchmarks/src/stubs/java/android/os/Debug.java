@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Stand-in for android.os.Debug on a plain JVM: no debugger is ever attached.
+ */
+public class Debug {
+    public static boolean isDebuggerConnected() {
+        return false;
+    }
+
+    public static boolean waitingForDebugger() {
+        return false;
+    }
+}
@@ -0,0 +1,14 @@
+package android.util;
+
+/**
+ * Stand-in for android.util.Log on a plain JVM: writes to stderr.
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+}
@@ -0,0 +1,16 @@
+package be.idamf.android.tamperdetection;
+
+/**
+ * Stand-in for the generated resource ids the pinning classes refer to.
+ */
+public final class R {
+    private R() {
+    }
+
+    public static final class raw {
+        public static final int truststore = 0x7f040000;
+
+        private raw() {
+        }
+    }
+}
@@ -13,14 +13,33 @@ import android.text.Html;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Locale;
 
+import be.idamf.android.tamperdetection.pinning.ConnectionPrewarmer;
+import be.idamf.android.tamperdetection.pinning.HttpsTelemetryTransport;
+import be.idamf.android.tamperdetection.pinning.PinnedHttpClient;
+import be.idamf.android.tamperdetection.pinning.TrustAnchorStore;
+import be.idamf.android.tamperdetection.task.RecheckScheduler;
 import be.idamf.android.tamperdetection.ui.EnvironmentCheckFragment;
 import be.idamf.android.tamperdetection.ui.NetworkCheckFragment;
 import be.idamf.android.tamperdetection.ui.RootCheckFragment;
+import be.idamf.android.tamperdetection.util.TelemetryQueue;
+import be.idamf.android.tamperdetection.util.TelemetryUploader;
 
 public class MainActivity extends Activity implements ActionBar.TabListener {
 
+    /**
+     * Set to true to connect to the network check's server while the app starts,
+     * so the first check on the network tab doesn't pay for DNS, connect and handshake.
+     */
+    private static final boolean PREWARM_NETWORK_CHECK = false;
+
+    /**
+     * Set to the URL of a telemetry server to upload the queued detection reports while the app is visible.
+     */
+    private static final String TELEMETRY_UPLOAD_URL = null;
 
     /**
      * The {@link android.support.v4.view.PagerAdapter} that will provide
@@ -33,6 +52,21 @@ public class MainActivity extends Activity implements ActionBar.TabListener {
      */
     ViewPager mViewPager;
 
+    /**
+     * Keeps re-running the checks in the background while the app is visible.
+     */
+    RecheckScheduler mRecheckScheduler;
+
+    /**
+     * Keeps a connection to the network check's server ready, when enabled.
+     */
+    ConnectionPrewarmer mConnectionPrewarmer;
+
+    /**
+     * Uploads the queued detection reports, when enabled.
+     */
+    TelemetryUploader mTelemetryUploader;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,6 +98,53 @@ public class MainActivity extends Activity implements ActionBar.TabListener {
                             .setText(mSectionsPagerAdapter.getPageTitle(i))
                             .setTabListener(this));
         }
+
+        mRecheckScheduler = RecheckScheduler.getInstance(this, EnvironmentCheckFragment.SIGNING_KEY_VERIFIER);
+
+        // Parse the trust anchors before the first pinned request needs them.
+        TrustAnchorStore.getInstance(getApplicationContext()).preload();
+        if (PREWARM_NETWORK_CHECK) {
+            try {
+                mConnectionPrewarmer = ConnectionPrewarmer.getInstance(this,
+                        new URL(NetworkCheckFragment.HTTPS_TEST_URL));
+            } catch (MalformedURLException e) {
+                // constant URL - never happens
+            }
+        }
+        if (TELEMETRY_UPLOAD_URL != null) {
+            try {
+                mTelemetryUploader = new TelemetryUploader(TelemetryQueue.getInstance(this),
+                        new HttpsTelemetryTransport(PinnedHttpClient.getInstance(this), new URL(TELEMETRY_UPLOAD_URL)));
+            } catch (MalformedURLException e) {
+                // constant URL - never happens
+            }
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mRecheckScheduler.start();
+        if (mConnectionPrewarmer != null) {
+            mConnectionPrewarmer.start();
+        }
+        if (mTelemetryUploader != null) {
+            mTelemetryUploader.start();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mRecheckScheduler.stop();
+        if (mConnectionPrewarmer != null) {
+            mConnectionPrewarmer.stop();
+        }
+        if (mTelemetryUploader != null) {
+            // one last upload of what the checks found while visible
+            mTelemetryUploader.flush();
+            mTelemetryUploader.stop();
+        }
     }
 
 
@@ -0,0 +1,19 @@
+package be.idamf.android.tamperdetection.data;
+
+/**
+ * The individual detection checks the app knows about.
+ */
+public enum CheckType {
+    ROOTED_SIGNING_KEYS,
+    ROOTED_BINARIES,
+    ROOTED_PROCESS,
+    INSTALLED_THROUGH_PLAY_STORE,
+    DEBUGGABLE,
+    RUNNING_IN_EMULATOR,
+    VALID_SIGNING_KEY,
+    ROOTED_MOUNTS,
+    HOOKING_FRAMEWORK,
+    ROOTED_PACKAGES,
+    DEBUGGER_ATTACHED,
+    ROOTED_SHELL
+}
@@ -0,0 +1,70 @@
+package be.idamf.android.tamperdetection.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a shell command run through {@link be.idamf.android.tamperdetection.util.ExecShell}.
+ */
+public final class CommandResult {
+
+    /**
+     * Exit code reported when the process did not exit on its own (killed after the deadline).
+     */
+    public static final int NO_EXIT_CODE = Integer.MIN_VALUE;
+
+    private final int exitCode;
+    private final List<String> stdout;
+    private final List<String> stderr;
+    private final long elapsedMillis;
+    private final boolean truncated;
+    private final boolean timedOut;
+
+    public CommandResult(int exitCode, List<String> stdout, List<String> stderr, long elapsedMillis,
+                         boolean truncated, boolean timedOut) {
+        this.exitCode = exitCode;
+        this.stdout = Collections.unmodifiableList(new ArrayList<String>(stdout));
+        this.stderr = Collections.unmodifiableList(new ArrayList<String>(stderr));
+        this.elapsedMillis = elapsedMillis;
+        this.truncated = truncated;
+        this.timedOut = timedOut;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public List<String> getStdout() {
+        return stdout;
+    }
+
+    public List<String> getStderr() {
+        return stderr;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true when output was dropped because it did not fit in the output buffers
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return true when the process was destroyed because it ran past its deadline
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return true when the process exited on its own with exit code 0
+     */
+    public boolean isSuccess() {
+        return !timedOut && exitCode == 0;
+    }
+}
@@ -0,0 +1,83 @@
+package be.idamf.android.tamperdetection.data;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merged outcome of a single detection run.
+ * A check that failed or did not finish in time has no result.
+ */
+public final class DetectionResult {
+
+    private final Map<CheckType, Boolean> results;
+    private final long elapsedMillis;
+    private final TamperReport report;
+
+    public DetectionResult(Map<CheckType, Boolean> results, long elapsedMillis) {
+        this(results, elapsedMillis, TamperReport.of(results, elapsedMillis));
+    }
+
+    public DetectionResult(Map<CheckType, Boolean> results, long elapsedMillis, TamperReport report) {
+        if (results.isEmpty()) {
+            this.results = Collections.emptyMap();
+        } else {
+            this.results = Collections.unmodifiableMap(new EnumMap<CheckType, Boolean>(results));
+        }
+        this.elapsedMillis = elapsedMillis;
+        this.report = report;
+    }
+
+    /**
+     * @param checkType the check
+     * @return the outcome of the check, or null when the check did not complete
+     */
+    public Boolean getResult(CheckType checkType) {
+        return results.get(checkType);
+    }
+
+    public boolean hasResult(CheckType checkType) {
+        return results.containsKey(checkType);
+    }
+
+    public boolean isDetected(CheckType checkType) {
+        return Boolean.TRUE.equals(results.get(checkType));
+    }
+
+    /**
+     * @return true when at least one of the completed checks reported a positive outcome
+     */
+    public boolean isAnyDetected() {
+        return results.containsValue(Boolean.TRUE);
+    }
+
+    /**
+     * @param checkTypes the checks to look at
+     * @return true when at least one of the given checks completed with a positive outcome
+     */
+    public boolean isAnyDetected(Collection<CheckType> checkTypes) {
+        for (CheckType checkType : checkTypes) {
+            if (isDetected(checkType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Set<CheckType> getCheckTypes() {
+        return results.keySet();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the compact form of this result, with the latency and confidence of every check
+     */
+    public TamperReport getReport() {
+        return report;
+    }
+}
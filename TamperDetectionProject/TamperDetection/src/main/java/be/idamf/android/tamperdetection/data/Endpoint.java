@@ -0,0 +1,79 @@
+package be.idamf.android.tamperdetection.data;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
+
+/**
+ * An HTTPS endpoint to verify, with the public keys it is expected to present.
+ */
+public final class Endpoint {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private static final int SHA256_LENGTH = 32;
+
+    private final String name;
+    private final URL url;
+    private final List<String> pins;
+    private final boolean appAnchorsOnly;
+    private final long timeoutMillis;
+
+    /**
+     * An endpoint with a certificate from a public CA, verified with the default timeout.
+     */
+    public Endpoint(String name, URL url, Collection<String> pins) {
+        this(name, url, pins, false, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param name name to report the endpoint by, e.g. "API" or "CDN"
+     * @param url the URL to request
+     * @param pins hex SHA-256 hashes of the SubjectPublicKeyInfo of acceptable keys, empty to skip the pin check
+     * @param appAnchorsOnly true to only trust the app's own trust anchors instead of the platform's CAs
+     * @param timeoutMillis deadline for the whole request
+     * @throws IllegalArgumentException when a pin is not a hex SHA-256 hash
+     */
+    public Endpoint(String name, URL url, Collection<String> pins, boolean appAnchorsOnly, long timeoutMillis) {
+        for (String pin : pins) {
+            final byte[] hash = TamperDetectionUtils.unhexify(pin);
+            if (hash == null || hash.length != SHA256_LENGTH) {
+                throw new IllegalArgumentException("Invalid SHA-256 pin for " + name + ": " + pin);
+            }
+        }
+        this.name = name;
+        this.url = url;
+        this.pins = Collections.unmodifiableList(new ArrayList<String>(pins));
+        this.appAnchorsOnly = appAnchorsOnly;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public List<String> getPins() {
+        return pins;
+    }
+
+    public boolean isAppAnchorsOnly() {
+        return appAnchorsOnly;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + url + ")";
+    }
+}
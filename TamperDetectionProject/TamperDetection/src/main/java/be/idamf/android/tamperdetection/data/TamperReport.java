@@ -0,0 +1,295 @@
+package be.idamf.android.tamperdetection.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Compact, immutable snapshot of one detection run: two bitmasks over {@link CheckType#ordinal()}
+ * telling which checks completed and which of those detected something, plus per check
+ * the latency and a confidence from 0 to {@link #FULL_CONFIDENCE}.
+ * <p/>
+ * Reports serialize to a fixed-size record of {@link #SERIALIZED_SIZE} bytes, so they can be logged,
+ * compared and shipped without maps or strings:
+ * <pre>
+ * byte    format version
+ * byte    number of checks, n
+ * long    completed checks
+ * long    detected checks
+ * int     elapsed millis of the run
+ * int[n]  latency of every check, in microseconds
+ * byte[n] confidence of every check
+ * </pre>
+ * All values are big endian.
+ */
+public final class TamperReport {
+
+    public static final int FULL_CONFIDENCE = 100;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int CHECK_COUNT = CheckType.values().length;
+    private static final int HEADER_SIZE = 1 + 1 + 8 + 8 + 4;
+
+    /**
+     * Size of a serialized report, for the checks of this version.
+     */
+    public static final int SERIALIZED_SIZE = serializedSize(CHECK_COUNT);
+
+    private final long completed;
+    private final long detected;
+    private final long elapsedMillis;
+    private final int[] latencyMicros;
+    private final byte[] confidence;
+
+    /**
+     * @param completed bit per check that completed
+     * @param detected bit per check that detected something; only bits of completed checks are kept
+     * @param elapsedMillis duration of the run
+     * @param latencyMicros latency per check, by ordinal; may be shorter than the number of checks
+     * @param confidence confidence per check, by ordinal, 0 to {@link #FULL_CONFIDENCE};
+     *                   may be shorter than the number of checks
+     */
+    public TamperReport(long completed, long detected, long elapsedMillis, int[] latencyMicros, byte[] confidence) {
+        this.completed = completed & (CHECK_COUNT == 64 ? -1L : (1L << CHECK_COUNT) - 1);
+        this.detected = detected & this.completed;
+        this.elapsedMillis = elapsedMillis;
+        this.latencyMicros = Arrays.copyOf(latencyMicros, CHECK_COUNT);
+        this.confidence = Arrays.copyOf(confidence, CHECK_COUNT);
+        for (int i = 0; i < CHECK_COUNT; i++) {
+            if (this.confidence[i] < 0 || this.confidence[i] > FULL_CONFIDENCE) {
+                throw new IllegalArgumentException("Confidence out of range for " + CheckType.values()[i]
+                        + ": " + this.confidence[i]);
+            }
+        }
+    }
+
+    /**
+     * Report for outcomes without timing information: every completed check gets full confidence.
+     *
+     * @param results outcome per check, null for checks that did not complete
+     * @param elapsedMillis duration of the run
+     * @return report
+     */
+    public static TamperReport of(Map<CheckType, Boolean> results, long elapsedMillis) {
+        return of(results, elapsedMillis, new int[0], Collections.<CheckType, Integer>emptyMap());
+    }
+
+    /**
+     * @param results outcome per check, null for checks that did not complete
+     * @param elapsedMillis duration of the run
+     * @param latencyMicros latency per check, by ordinal; may be shorter than the number of checks
+     * @param confidence confidence per check, 0 to {@link #FULL_CONFIDENCE};
+     *                   completed checks that are missing get full confidence
+     * @return report
+     */
+    public static TamperReport of(Map<CheckType, Boolean> results, long elapsedMillis, int[] latencyMicros,
+                                  Map<CheckType, Integer> confidence) {
+        long completed = 0;
+        long detected = 0;
+        final byte[] confidenceBytes = new byte[CHECK_COUNT];
+        for (Map.Entry<CheckType, Boolean> result : results.entrySet()) {
+            if (result.getValue() != null) {
+                final int ordinal = result.getKey().ordinal();
+                completed |= 1L << ordinal;
+                if (result.getValue()) {
+                    detected |= 1L << ordinal;
+                }
+                final Integer checkConfidence = confidence.get(result.getKey());
+                confidenceBytes[ordinal] = (byte) (checkConfidence != null ? checkConfidence : FULL_CONFIDENCE);
+            }
+        }
+        return new TamperReport(completed, detected, elapsedMillis, latencyMicros, confidenceBytes);
+    }
+
+    /**
+     * Read a report written by {@link #writeTo(byte[], int)}.
+     * Reports of an older version, with fewer checks, are read with the missing checks not completed.
+     *
+     * @param buffer the buffer
+     * @param offset offset of the report in the buffer
+     * @return report
+     * @throws IllegalArgumentException when the buffer does not hold a report of a known format
+     */
+    public static TamperReport readFrom(byte[] buffer, int offset) {
+        if (buffer.length - offset < HEADER_SIZE || buffer[offset] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Not a tamper report");
+        }
+        final int checkCount = buffer[offset + 1] & 0xff;
+        if (checkCount > CHECK_COUNT || buffer.length - offset < serializedSize(checkCount)) {
+            throw new IllegalArgumentException("Unsupported tamper report of " + checkCount + " checks");
+        }
+        final long completed = readLong(buffer, offset + 2);
+        final long detected = readLong(buffer, offset + 10);
+        final long elapsedMillis = readInt(buffer, offset + 18) & 0xffffffffL;
+        final int[] latencyMicros = new int[checkCount];
+        final byte[] confidence = new byte[checkCount];
+        int position = offset + HEADER_SIZE;
+        for (int i = 0; i < checkCount; i++, position += 4) {
+            latencyMicros[i] = readInt(buffer, position);
+        }
+        System.arraycopy(buffer, position, confidence, 0, checkCount);
+        return new TamperReport(completed, detected, elapsedMillis, latencyMicros, confidence);
+    }
+
+    /**
+     * @param buffer the record
+     * @return report
+     * @throws IllegalArgumentException when the record is not a report of a known format
+     * @see #readFrom(byte[], int)
+     */
+    public static TamperReport fromByteArray(byte[] buffer) {
+        return readFrom(buffer, 0);
+    }
+
+    /**
+     * Write this report, {@link #SERIALIZED_SIZE} bytes, into a buffer.
+     *
+     * @param buffer the buffer
+     * @param offset where to start writing
+     * @return offset after the report
+     */
+    public int writeTo(byte[] buffer, int offset) {
+        buffer[offset] = FORMAT_VERSION;
+        buffer[offset + 1] = (byte) CHECK_COUNT;
+        writeLong(buffer, offset + 2, completed);
+        writeLong(buffer, offset + 10, detected);
+        writeInt(buffer, offset + 18, (int) Math.min(elapsedMillis, 0xffffffffL));
+        int position = offset + HEADER_SIZE;
+        for (int latency : latencyMicros) {
+            writeInt(buffer, position, latency);
+            position += 4;
+        }
+        System.arraycopy(confidence, 0, buffer, position, CHECK_COUNT);
+        return position + CHECK_COUNT;
+    }
+
+    /**
+     * @return the report as a record of {@link #SERIALIZED_SIZE} bytes
+     */
+    public byte[] toByteArray() {
+        final byte[] buffer = new byte[SERIALIZED_SIZE];
+        writeTo(buffer, 0);
+        return buffer;
+    }
+
+    public boolean hasResult(CheckType checkType) {
+        return (completed & (1L << checkType.ordinal())) != 0;
+    }
+
+    public boolean isDetected(CheckType checkType) {
+        return (detected & (1L << checkType.ordinal())) != 0;
+    }
+
+    /**
+     * @return true when at least one of the completed checks detected something
+     */
+    public boolean isAnyDetected() {
+        return detected != 0;
+    }
+
+    /**
+     * @return bit per check, by ordinal, that completed
+     */
+    public long getCompletedMask() {
+        return completed;
+    }
+
+    /**
+     * @return bit per check, by ordinal, that completed and detected something
+     */
+    public long getDetectedMask() {
+        return detected;
+    }
+
+    /**
+     * @param checkType the check
+     * @return how long the check took, in microseconds, or 0 when unknown
+     */
+    public int getLatencyMicros(CheckType checkType) {
+        return latencyMicros[checkType.ordinal()];
+    }
+
+    /**
+     * @param checkType the check
+     * @return confidence in the outcome of the check, 0 to {@link #FULL_CONFIDENCE}; 0 when it did not complete
+     */
+    public int getConfidence(CheckType checkType) {
+        return confidence[checkType.ordinal()];
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @param other another report
+     * @return bit per check, by ordinal, whose outcome differs between both reports,
+     * including checks that completed in only one of them
+     */
+    public long diff(TamperReport other) {
+        return (completed ^ other.completed) | (detected ^ other.detected);
+    }
+
+    /**
+     * Two reports are equal when all their outcomes, latencies and confidences are.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TamperReport)) {
+            return false;
+        }
+        final TamperReport other = (TamperReport) o;
+        return completed == other.completed && detected == other.detected && elapsedMillis == other.elapsedMillis
+                && Arrays.equals(latencyMicros, other.latencyMicros) && Arrays.equals(confidence, other.confidence);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (completed ^ (completed >>> 32));
+        result = 31 * result + (int) (detected ^ (detected >>> 32));
+        result = 31 * result + (int) (elapsedMillis ^ (elapsedMillis >>> 32));
+        result = 31 * result + Arrays.hashCode(latencyMicros);
+        return 31 * result + Arrays.hashCode(confidence);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("TamperReport{");
+        for (CheckType checkType : CheckType.values()) {
+            if (hasResult(checkType)) {
+                sb.append(checkType).append('=').append(isDetected(checkType))
+                        .append(" (").append(getLatencyMicros(checkType)).append("us, ")
+                        .append(getConfidence(checkType)).append("%), ");
+            }
+        }
+        return sb.append("elapsed=").append(elapsedMillis).append("ms}").toString();
+    }
+
+    private static int serializedSize(int checkCount) {
+        return HEADER_SIZE + checkCount * 5;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static void writeLong(byte[] buffer, int offset, long value) {
+        writeInt(buffer, offset, (int) (value >>> 32));
+        writeInt(buffer, offset + 4, (int) value);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16
+                | (buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        return (long) readInt(buffer, offset) << 32 | readInt(buffer, offset + 4) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,108 @@
+package be.idamf.android.tamperdetection.data;
+
+/**
+ * Outcome of a request to a pinned HTTPS endpoint,
+ * see {@link be.idamf.android.tamperdetection.pinning.PinnedHttpClient}.
+ */
+public final class VerificationResult {
+
+    /**
+     * Response code reported when no response was received.
+     */
+    public static final int NO_RESPONSE = -1;
+
+    /**
+     * Handshake duration reported when the request reused a pooled connection, or failed before TLS.
+     */
+    public static final long NO_HANDSHAKE = -1;
+
+    /**
+     * Whether the server presented one of the expected public keys.
+     */
+    public enum PinStatus {
+        /** No pins were given, or the connection failed before they were checked. */
+        NOT_CHECKED,
+        /** One of the certificates has a pinned public key. */
+        MATCHED,
+        /** None of the certificates has a pinned public key: the handshake was aborted, no request was sent. */
+        MISMATCHED
+    }
+
+    private final String name;
+    private final String url;
+    private final int responseCode;
+    private final long handshakeMicros;
+    private final PinStatus pinStatus;
+    private final long bytesRead;
+    private final long elapsedMillis;
+    private final String error;
+
+    public VerificationResult(String name, String url, int responseCode, long handshakeMicros, PinStatus pinStatus,
+                              long bytesRead, long elapsedMillis, String error) {
+        this.name = name;
+        this.url = url;
+        this.responseCode = responseCode;
+        this.handshakeMicros = handshakeMicros;
+        this.pinStatus = pinStatus;
+        this.bytesRead = bytesRead;
+        this.elapsedMillis = elapsedMillis;
+        this.error = error;
+    }
+
+    /**
+     * @return name of the endpoint, or the URL when it has no name
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return duration of the TLS handshake of a new connection, also when it failed, in microseconds;
+     * {@link #NO_HANDSHAKE} when a pooled connection was reused
+     */
+    public long getHandshakeMicros() {
+        return handshakeMicros;
+    }
+
+    public PinStatus getPinStatus() {
+        return pinStatus;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return why the request failed, e.g. an untrusted certificate, a pin mismatch or a timeout,
+     * or null when a response was received
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return true when the connection was trusted, no pin mismatched and a response was received
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "VerificationResult{name=" + name + ", url=" + url + ", responseCode=" + responseCode
+                + ", handshakeMicros=" + handshakeMicros + ", pinStatus=" + pinStatus + ", bytesRead=" + bytesRead
+                + ", elapsedMillis=" + elapsedMillis + ", error=" + error + '}';
+    }
+}
@@ -0,0 +1,132 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import android.content.Context;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import be.idamf.android.tamperdetection.data.VerificationResult;
+
+/**
+ * Opens a pinned connection to an endpoint ahead of the first real request, on a low-priority thread,
+ * and keeps it warm for an idle window by repeating a HEAD request before the server drops it.
+ * After the window has passed, the connection is left to the pool's keep-alive.
+ */
+public final class ConnectionPrewarmer {
+
+    public static final long DEFAULT_IDLE_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    public static final long DEFAULT_REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // keyed by the URL's text: URL.equals resolves host names
+    private static final Map<String, ConnectionPrewarmer> instances = new HashMap<String, ConnectionPrewarmer>();
+
+    private final PinnedHttpClient client;
+    private final URL url;
+    private final long idleWindowMillis;
+    private final long refreshMillis;
+    private final CountDownLatch firstWarmup = new CountDownLatch(1);
+
+    private ScheduledExecutorService executor;
+    private volatile long stopAt;
+    private volatile VerificationResult lastResult;
+
+    public ConnectionPrewarmer(final PinnedHttpClient client, final URL url) {
+        this(client, url, DEFAULT_IDLE_WINDOW_MILLIS, DEFAULT_REFRESH_MILLIS);
+    }
+
+    /**
+     * Get the process-wide pre-warmer of a URL, over the shared {@link PinnedHttpClient},
+     * so a recreated activity keeps warming the same connection instead of starting another thread.
+     *
+     * @param context Context
+     * @param url the endpoint
+     * @return pre-warmer
+     */
+    public static synchronized ConnectionPrewarmer getInstance(final Context context, final URL url) {
+        ConnectionPrewarmer prewarmer = instances.get(url.toString());
+        if (prewarmer == null) {
+            prewarmer = new ConnectionPrewarmer(PinnedHttpClient.getInstance(context), url);
+            instances.put(url.toString(), prewarmer);
+        }
+        return prewarmer;
+    }
+
+    /**
+     * @param client the client whose pool should hold the connection
+     * @param url the endpoint
+     * @param idleWindowMillis how long to keep the connection warm after {@link #start()}
+     * @param refreshMillis how often to use the connection, shorter than the server's keep-alive timeout
+     */
+    public ConnectionPrewarmer(final PinnedHttpClient client, final URL url, final long idleWindowMillis,
+                               final long refreshMillis) {
+        this.client = client;
+        this.url = url;
+        this.idleWindowMillis = idleWindowMillis;
+        this.refreshMillis = refreshMillis;
+    }
+
+    /**
+     * Warm up the connection now and keep it warm for the idle window.
+     * Calling this again while running restarts the idle window.
+     */
+    public synchronized void start() {
+        stopAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(idleWindowMillis);
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ConnectionPrewarmer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (System.nanoTime() - stopAt >= 0) {
+                    stop();
+                    return;
+                }
+                lastResult = client.prewarm(url);
+                firstWarmup.countDown();
+            }
+        }, 0, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop keeping the connection warm. The pooled connection itself is not closed.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Wait until the first warm-up has finished.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return the result of the first warm-up, or null when it did not finish in time
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public VerificationResult awaitWarm(final long timeoutMillis) throws InterruptedException {
+        return firstWarmup.await(timeoutMillis, TimeUnit.MILLISECONDS) ? lastResult : null;
+    }
+
+    /**
+     * @return the result of the latest warm-up, or null before the first one finished
+     */
+    public VerificationResult getLastResult() {
+        return lastResult;
+    }
+}
@@ -0,0 +1,168 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.idamf.android.tamperdetection.data.Endpoint;
+import be.idamf.android.tamperdetection.data.VerificationResult;
+
+/**
+ * Verifies a batch of endpoints in parallel over the shared {@link PinnedHttpClient}.
+ * Every endpoint has its own deadline, counted from the start of the batch; results are reported
+ * as soon as they are in, so a slow host only delays its own result.
+ */
+public final class EndpointVerifier {
+
+    /**
+     * Receives the result of every endpoint, in the order they complete.
+     */
+    public interface Listener {
+        void onResult(Endpoint endpoint, VerificationResult result);
+    }
+
+    private static final int POOL_SIZE = 6;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static EndpointVerifier instance;
+
+    private final PinnedHttpClient client;
+    private final ThreadPoolExecutor executor;
+
+    public EndpointVerifier(final PinnedHttpClient client) {
+        this.client = client;
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new VerifierThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized EndpointVerifier getInstance(final Context context) {
+        if (instance == null) {
+            instance = new EndpointVerifier(PinnedHttpClient.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Verify all endpoints at the same time and wait for them, at most until the latest deadline.
+     * Endpoints that did not finish before their own deadline get a timed out result.
+     * This blocks, so don't call it on the main thread.
+     *
+     * @param endpoints the endpoints
+     * @param listener receives every result as soon as it is known, on the calling thread; may be null
+     * @return one result per endpoint, in the same order
+     */
+    public List<VerificationResult> verifyAll(final List<Endpoint> endpoints, final Listener listener) {
+        final long start = System.nanoTime();
+        final CompletionService<VerificationResult> completionService =
+                new ExecutorCompletionService<VerificationResult>(executor);
+        final Map<Future<VerificationResult>, Integer> pending = new HashMap<Future<VerificationResult>, Integer>();
+        final long[] deadlines = new long[endpoints.size()];
+        final VerificationResult[] results = new VerificationResult[endpoints.size()];
+        for (int i = 0; i < endpoints.size(); i++) {
+            final Endpoint endpoint = endpoints.get(i);
+            deadlines[i] = start + TimeUnit.MILLISECONDS.toNanos(endpoint.getTimeoutMillis());
+            pending.put(completionService.submit(new Callable<VerificationResult>() {
+                @Override
+                public VerificationResult call() {
+                    return client.verify(endpoint);
+                }
+            }), i);
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                long nextDeadline = Long.MAX_VALUE;
+                for (int i : pending.values()) {
+                    nextDeadline = Math.min(nextDeadline, deadlines[i]);
+                }
+                final Future<VerificationResult> done =
+                        completionService.poll(Math.max(0, nextDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (done != null) {
+                    final Integer index = pending.remove(done);
+                    if (index != null) {
+                        results[index] = getResult(done, endpoints.get(index), start);
+                        report(listener, endpoints.get(index), results[index]);
+                    }
+                }
+                expire(pending, deadlines, endpoints, results, listener, start);
+            }
+        } catch (InterruptedException e) {
+            for (Map.Entry<Future<VerificationResult>, Integer> entry : pending.entrySet()) {
+                entry.getKey().cancel(true);
+                results[entry.getValue()] = failed(endpoints.get(entry.getValue()), start, "Interrupted");
+            }
+            Thread.currentThread().interrupt();
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Stop the verification threads, interrupting running requests.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void expire(final Map<Future<VerificationResult>, Integer> pending, final long[] deadlines,
+                               final List<Endpoint> endpoints, final VerificationResult[] results,
+                               final Listener listener, final long start) {
+        final long now = System.nanoTime();
+        final Future<?>[] futures = pending.keySet().toArray(new Future<?>[pending.size()]);
+        for (Future<?> future : futures) {
+            final int index = pending.get(future);
+            if (now - deadlines[index] >= 0) {
+                // the socket timeouts end the request itself soon after
+                future.cancel(true);
+                pending.remove(future);
+                results[index] = failed(endpoints.get(index), start, "Timed out");
+                report(listener, endpoints.get(index), results[index]);
+            }
+        }
+    }
+
+    private static VerificationResult getResult(final Future<VerificationResult> future, final Endpoint endpoint,
+                                                final long start) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return failed(endpoint, start, String.valueOf(e.getCause()));
+        }
+    }
+
+    private static VerificationResult failed(final Endpoint endpoint, final long start, final String error) {
+        return new VerificationResult(endpoint.getName(), endpoint.getUrl().toString(), VerificationResult.NO_RESPONSE,
+                VerificationResult.NO_HANDSHAKE, VerificationResult.PinStatus.NOT_CHECKED, 0,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error);
+    }
+
+    private static void report(final Listener listener, final Endpoint endpoint, final VerificationResult result) {
+        if (listener != null) {
+            listener.onResult(endpoint, result);
+        }
+    }
+
+    private static class VerifierThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EndpointVerifier #" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import be.idamf.android.tamperdetection.util.StreamingReader;
+import be.idamf.android.tamperdetection.util.TelemetryUploader;
+
+/**
+ * Posts telemetry batches to an HTTPS endpoint through the pinned client, so they share its pooled connections.
+ * The body is the gzipped batch, sent as is with Content-Encoding gzip; the number of events goes in a header.
+ */
+public final class HttpsTelemetryTransport implements TelemetryUploader.Transport {
+
+    static final String EVENT_COUNT_HEADER = "X-Event-Count";
+
+    private static final long MAX_RESPONSE_SIZE = 64 * 1024;
+
+    private final PinnedHttpClient client;
+    private final URL url;
+    private final StreamingReader responseReader = new StreamingReader(MAX_RESPONSE_SIZE);
+
+    public HttpsTelemetryTransport(final PinnedHttpClient client, final URL url) {
+        this.client = client;
+        this.url = url;
+    }
+
+    @Override
+    public void send(final byte[] payload, final int length, final int eventCount) throws IOException {
+        final HttpURLConnection connection = client.open(url, true);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(length);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setRequestProperty(EVENT_COUNT_HEADER, String.valueOf(eventCount));
+        final OutputStream out = connection.getOutputStream();
+        try {
+            out.write(payload, 0, length);
+        } finally {
+            out.close();
+        }
+
+        final int responseCode = connection.getResponseCode();
+        final InputStream in = responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                // drained, so the connection goes back to the pool
+                responseReader.read(in, StreamingReader.DISCARD);
+            } finally {
+                in.close();
+            }
+        }
+        if (responseCode / 100 != 2) {
+            throw new IOException("Telemetry upload rejected: HTTP " + responseCode);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import android.content.Context;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.internal.tls.OkHostnameVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+
+import be.idamf.android.tamperdetection.data.Endpoint;
+import be.idamf.android.tamperdetection.data.VerificationResult;
+import be.idamf.android.tamperdetection.util.StreamingReader;
+
+/**
+ * Process-wide HTTPS clients: one that only trusts the app's own anchors, see {@link TrustAnchorStore},
+ * one that uses the platform's default trust, and one per pinned endpoint, whose {@link PinningTrustManager}
+ * checks the endpoint's pins during the TLS handshake.
+ * Every SSLContext is built only once, on first use.
+ * All clients share a connection pool, and every SSLContext keeps a TLS session cache,
+ * so repeated requests to the same host reuse the connection or at least resume the TLS session.
+ * The pool never hands a connection of one client to another, so a connection is only reused
+ * under the pins it was checked against.
+ * <p/>
+ * The TLS handshake of every new connection is timed on the requesting thread: from the moment the socket
+ * factory layers TLS over the connected socket, to the moment the hostname verifier sees the session.
+ */
+public final class PinnedHttpClient {
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int SESSION_CACHE_SIZE = 32;
+    private static final int SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+    private static final long CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final long READ_TIMEOUT_MILLIS = 10000;
+    private static final long MAX_BODY_SIZE = 1024 * 1024;
+    private static final List<String> NO_PINS = Collections.emptyList();
+
+    /**
+     * Handshake of the request running on this thread, if any.
+     */
+    private static final ThreadLocal<HandshakeTimer> HANDSHAKE_TIMER = new ThreadLocal<HandshakeTimer>();
+
+    /**
+     * OkHttp's verifier, which it calls right after the handshake; ends the timing of the handshake.
+     */
+    private static final HostnameVerifier HOSTNAME_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String host, SSLSession session) {
+            final HandshakeTimer timer = HANDSHAKE_TIMER.get();
+            if (timer != null) {
+                timer.end();
+            }
+            return OkHostnameVerifier.INSTANCE.verify(host, session);
+        }
+    };
+
+    private static PinnedHttpClient instance;
+
+    private final Context context;
+    private final ConnectionPool connectionPool;
+    private final OkHttpClient defaultClient;
+    private final StreamingReader responseReader = new StreamingReader(MAX_BODY_SIZE);
+    private final Map<String, OkHttpClient> endpointClients = new HashMap<String, OkHttpClient>();
+    private X509TrustManager appAnchors;
+    private OkHttpClient pinnedClient;
+
+    PinnedHttpClient(final Context context, final ConnectionPool connectionPool) {
+        this.context = context;
+        this.connectionPool = connectionPool;
+        this.defaultClient = newClient();
+        this.defaultClient.setSslSocketFactory(new HandshakeTimingSocketFactory(
+                HttpsURLConnection.getDefaultSSLSocketFactory()));
+    }
+
+    /**
+     * Create clients that trust the given anchors instead of the app's truststore,
+     * e.g. to run against a local HTTPS server.
+     *
+     * @param appAnchors trust manager for the anchors of the pinned clients
+     * @param connectionPool pool shared by all clients
+     */
+    public PinnedHttpClient(final X509TrustManager appAnchors, final ConnectionPool connectionPool) {
+        this((Context) null, connectionPool);
+        this.appAnchors = appAnchors;
+    }
+
+    /**
+     * @return the shared instance; its pool keeps idle connections for 5 minutes
+     */
+    public static synchronized PinnedHttpClient getInstance(final Context context) {
+        if (instance == null) {
+            instance = new PinnedHttpClient(context.getApplicationContext(),
+                    new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS));
+        }
+        return instance;
+    }
+
+    /**
+     * Get the shared client. Do not reconfigure it: it is used by all callers in the process.
+     * The first call for the pinned client loads the truststore, so don't make it on the main thread.
+     *
+     * @param pinned true for the client that only trusts the bundled truststore
+     * @return client
+     * @throws IOException when the truststore cannot be loaded
+     */
+    public OkHttpClient getClient(final boolean pinned) throws IOException {
+        return pinned ? getPinnedClient() : defaultClient;
+    }
+
+    /**
+     * Open a connection through the shared client.
+     *
+     * @param url the URL
+     * @param pinned true to only trust the bundled truststore
+     * @return connection, not connected yet
+     * @throws IOException when the truststore cannot be loaded
+     */
+    public HttpURLConnection open(final URL url, final boolean pinned) throws IOException {
+        return getClient(pinned).open(url);
+    }
+
+    /**
+     * Request a URL through the pinned client and read the whole response.
+     * The body is drained, without keeping it, so the connection goes back to the pool.
+     * Bodies larger than 1 MB are rejected.
+     *
+     * @param url the URL
+     * @return result, with an error when the connection was not trusted or failed
+     */
+    public VerificationResult verify(final URL url) {
+        return request(url.toString(), url, "GET", true, NO_PINS, 0);
+    }
+
+    /**
+     * Request an endpoint and check that it presents one of its pinned keys.
+     * The pins are checked during the TLS handshake, so a server without a pinned key never receives
+     * the request and its connection is never pooled. The response is drained like {@link #verify(java.net.URL)} does.
+     * The connection and read timeouts are set to the endpoint's timeout.
+     *
+     * @param endpoint the endpoint
+     * @return result, with an error when the connection was not trusted, the pins mismatched or the request failed
+     */
+    public VerificationResult verify(final Endpoint endpoint) {
+        return request(endpoint.getName(), endpoint.getUrl(), "GET", endpoint.isAppAnchorsOnly(), endpoint.getPins(),
+                endpoint.getTimeoutMillis());
+    }
+
+    /**
+     * Get a pooled, handshaked connection to the host of a URL ready, so the next request to it
+     * only costs a round-trip: resolve the host and send a HEAD request through the pinned client.
+     * This blocks, so don't call it on the main thread.
+     *
+     * @param url the URL
+     * @return result of the HEAD request
+     */
+    public VerificationResult prewarm(final URL url) {
+        try {
+            // fills the platform's DNS cache
+            InetAddress.getAllByName(url.getHost());
+        } catch (UnknownHostException e) {
+            return new VerificationResult(url.toString(), url.toString(), VerificationResult.NO_RESPONSE,
+                    VerificationResult.NO_HANDSHAKE, VerificationResult.PinStatus.NOT_CHECKED, 0, 0,
+                    "Unknown host: " + url.getHost());
+        }
+        return request(url.toString(), url, "HEAD", true, NO_PINS, 0);
+    }
+
+    /**
+     * Verify several URLs, one after the other, over the shared pool:
+     * after the first request to a host, the others reuse its connection.
+     *
+     * @param urls the URLs
+     * @return one result per URL, in the same order
+     */
+    public List<VerificationResult> verify(final List<URL> urls) {
+        final List<VerificationResult> results = new ArrayList<VerificationResult>(urls.size());
+        for (URL url : urls) {
+            results.add(verify(url));
+        }
+        return results;
+    }
+
+    /**
+     * @return number of connections in the shared pool
+     */
+    public int getPooledConnectionCount() {
+        return connectionPool.getConnectionCount();
+    }
+
+    /**
+     * Close the idle pooled connections, e.g. when the network changed.
+     */
+    public void evictConnections() {
+        connectionPool.evictAll();
+    }
+
+    private VerificationResult request(final String name, final URL url, final String method,
+                                       final boolean appAnchorsOnly, final List<String> pins, final long timeoutMillis) {
+        final long start = System.nanoTime();
+        int responseCode = VerificationResult.NO_RESPONSE;
+        final HandshakeTimer handshake = new HandshakeTimer();
+        HANDSHAKE_TIMER.set(handshake);
+        VerificationResult.PinStatus pinStatus = VerificationResult.PinStatus.NOT_CHECKED;
+        long bytesRead = 0;
+        String error = null;
+        InputStream in = null;
+        try {
+            final HttpURLConnection connection = getClient(url.getHost(), appAnchorsOnly, pins).open(url);
+            if (timeoutMillis > 0) {
+                connection.setConnectTimeout((int) timeoutMillis);
+                connection.setReadTimeout((int) timeoutMillis);
+            }
+            connection.setRequestMethod(method);
+            connection.connect();
+            if (!pins.isEmpty()) {
+                // every connection of this client passed the pin check in its handshake
+                pinStatus = VerificationResult.PinStatus.MATCHED;
+            }
+            responseCode = connection.getResponseCode();
+            in = responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                bytesRead = responseReader.read(in, StreamingReader.DISCARD);
+            }
+        } catch (IOException e) {
+            final PinningTrustManager.PinMismatchException mismatch = findPinMismatch(e);
+            if (mismatch != null) {
+                pinStatus = VerificationResult.PinStatus.MISMATCHED;
+                error = mismatch.getMessage();
+            } else {
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            }
+        } finally {
+            HANDSHAKE_TIMER.remove();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // failed to close stream
+                }
+            }
+        }
+        return new VerificationResult(name, url.toString(), responseCode, handshake.getMicros(), pinStatus, bytesRead,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), error);
+    }
+
+    private static PinningTrustManager.PinMismatchException findPinMismatch(final Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PinningTrustManager.PinMismatchException) {
+                return (PinningTrustManager.PinMismatchException) cause;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the shared client for unpinned requests, or the client of a pinned host, built on first use
+     */
+    private OkHttpClient getClient(final String host, final boolean appAnchorsOnly, final List<String> pins)
+            throws IOException {
+        if (pins.isEmpty()) {
+            return getClient(appAnchorsOnly);
+        }
+        final String key = (appAnchorsOnly ? "anchors " : "platform ") + host.toLowerCase() + " " + pins;
+        synchronized (endpointClients) {
+            OkHttpClient client = endpointClients.get(key);
+            if (client == null) {
+                client = newClient();
+                final X509TrustManager trustManager = appAnchorsOnly ? getAppAnchors() : getPlatformTrust();
+                client.setSslSocketFactory(newSslSocketFactory(trustManager, pins));
+                endpointClients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    private synchronized OkHttpClient getPinnedClient() throws IOException {
+        if (pinnedClient == null) {
+            final OkHttpClient client = newClient();
+            client.setSslSocketFactory(newSslSocketFactory(getAppAnchors(), NO_PINS));
+            pinnedClient = client;
+        }
+        return pinnedClient;
+    }
+
+    private synchronized X509TrustManager getAppAnchors() throws IOException {
+        if (appAnchors == null) {
+            appAnchors = TrustAnchorStore.getInstance(context).getTrustManager();
+        }
+        return appAnchors;
+    }
+
+    private static X509TrustManager getPlatformTrust() throws IOException {
+        try {
+            return PinningTrustManager.platformTrustManager(null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Platform trust unavailable: " + e.getMessage());
+        }
+    }
+
+    private OkHttpClient newClient() {
+        final OkHttpClient client = new OkHttpClient();
+        client.setConnectionPool(connectionPool);
+        client.setConnectTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        client.setHostnameVerifier(HOSTNAME_VERIFIER);
+        return client;
+    }
+
+    /**
+     * @param trustManager validates the chain
+     * @param pins pins of the one host the factory connects to, checked on top of it during the handshake;
+     *             empty to only validate the chain
+     */
+    private static SSLSocketFactory newSslSocketFactory(final X509TrustManager trustManager, final List<String> pins)
+            throws IOException {
+        final SSLContext sslContext;
+        try {
+            sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new X509TrustManager[] { new PinningTrustManager(trustManager, pins) }, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("TLS unavailable: " + e.getMessage());
+        }
+        final SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        }
+        return new HandshakeTimingSocketFactory(sslContext.getSocketFactory());
+    }
+
+    /**
+     * Start and end of the TLS handshake of one request. Only touched by the requesting thread.
+     */
+    private static final class HandshakeTimer {
+        private long startNanos;
+        private long endNanos;
+
+        void start() {
+            // OkHttp retries a failed handshake with other TLS settings: the last attempt counts
+            startNanos = System.nanoTime();
+            endNanos = 0;
+        }
+
+        void end() {
+            if (startNanos != 0) {
+                endNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * @return duration of the handshake, up to now when it failed,
+         * or {@link VerificationResult#NO_HANDSHAKE} when there was none
+         */
+        long getMicros() {
+            if (startNanos == 0) {
+                return VerificationResult.NO_HANDSHAKE;
+            }
+            return TimeUnit.NANOSECONDS.toMicros((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos);
+        }
+    }
+
+    /**
+     * Starts the timing of the handshake when OkHttp layers TLS over a new connection.
+     */
+    private static final class HandshakeTimingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        HandshakeTimingSocketFactory(final SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            final HandshakeTimer timer = HANDSHAKE_TIMER.get();
+            if (timer != null) {
+                timer.start();
+            }
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
+
+/**
+ * X509TrustManager that first lets the platform validate the chain and then requires
+ * the SHA-256 hash of the SubjectPublicKeyInfo of one of the chain's certificates to be pinned.
+ * Without any pins, it only validates the chain.
+ * <p/>
+ * A trust manager doesn't know which host it is talking to, so it holds the pins of a single host:
+ * give every pinned host an SSLContext of its own, as {@link PinnedHttpClient} does.
+ * <p/>
+ * Chains that passed are cached by the SHA-256 of the leaf certificate, for at most an hour and never
+ * beyond the first notAfter in the chain, so reconnecting to a host skips path building and re-hashing.
+ */
+public class PinningTrustManager implements X509TrustManager {
+
+    private static final int SHA256_LENGTH = 32;
+    private static final int DEFAULT_MAX_CACHED_CHAINS = 64;
+    private static final long DEFAULT_CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final X509TrustManager delegate;
+    private final byte[][] pins;
+    private final int maxCachedChains;
+    private final long cacheTtlMillis;
+    private final Map<Sha256Key, VerifiedChain> verifiedChains;
+
+    /**
+     * @param delegate the trust manager that validates the chain first, usually the platform's
+     * @param pins the hex SHA-256 hashes of the SubjectPublicKeyInfo of the host's acceptable keys;
+     *             empty to only validate the chain
+     * @throws IllegalArgumentException when a pin is not a hex SHA-256 hash
+     */
+    public PinningTrustManager(final X509TrustManager delegate, final Collection<String> pins) {
+        this(delegate, pins, DEFAULT_MAX_CACHED_CHAINS, DEFAULT_CACHE_TTL_MILLIS);
+    }
+
+    public PinningTrustManager(final X509TrustManager delegate, final Collection<String> pins,
+                               final int maxCachedChains, final long cacheTtlMillis) {
+        this.delegate = delegate;
+        this.pins = new byte[pins.size()][];
+        int i = 0;
+        for (String pin : pins) {
+            this.pins[i] = TamperDetectionUtils.unhexify(pin);
+            if (this.pins[i] == null || this.pins[i].length != SHA256_LENGTH) {
+                throw new IllegalArgumentException("Invalid SHA-256 pin: " + pin);
+            }
+            i++;
+        }
+        this.maxCachedChains = maxCachedChains;
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.verifiedChains = new LinkedHashMap<Sha256Key, VerifiedChain>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Sha256Key, VerifiedChain> eldest) {
+                return size() > PinningTrustManager.this.maxCachedChains;
+            }
+        };
+    }
+
+    /**
+     * Get the X509TrustManager that trusts the anchors in a key store.
+     *
+     * @param trustStore the anchors, or null for the platform's trusted CAs
+     * @return trust manager
+     * @throws GeneralSecurityException when no X509TrustManager is available
+     */
+    public static X509TrustManager platformTrustManager(final KeyStore trustStore) throws GeneralSecurityException {
+        final TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+            if (trustManager instanceof X509TrustManager) {
+                return (X509TrustManager) trustManager;
+            }
+        }
+        throw new NoSuchAlgorithmException("No X509TrustManager available");
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        delegate.checkClientTrusted(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            throw new CertificateException("Empty certificate chain");
+        }
+        final Sha256Key leaf = Sha256Key.of(chain[0].getEncoded());
+        final long now = System.currentTimeMillis();
+        synchronized (verifiedChains) {
+            final VerifiedChain cached = verifiedChains.get(leaf);
+            if (cached != null && cached.isValid(authType, now)) {
+                return;
+            }
+        }
+
+        delegate.checkServerTrusted(chain, authType);
+        final byte[][] spkiHashes = new byte[chain.length][];
+        long expiresAt = now + cacheTtlMillis;
+        for (int i = 0; i < chain.length; i++) {
+            spkiHashes[i] = Sha256Key.hash(chain[i].getPublicKey().getEncoded());
+            expiresAt = Math.min(expiresAt, chain[i].getNotAfter().getTime());
+        }
+        if (pins.length > 0 && !containsPin(spkiHashes, pins)) {
+            throw new PinMismatchException();
+        }
+        synchronized (verifiedChains) {
+            verifiedChains.put(leaf, new VerifiedChain(authType, spkiHashes, expiresAt));
+        }
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return delegate.getAcceptedIssuers();
+    }
+
+    /**
+     * Forget all verified chains, e.g. after the pins changed.
+     */
+    public void clearCache() {
+        synchronized (verifiedChains) {
+            verifiedChains.clear();
+        }
+    }
+
+    private static boolean containsPin(final byte[][] spkiHashes, final byte[][] pins) {
+        for (byte[] spkiHash : spkiHashes) {
+            for (byte[] pin : pins) {
+                if (Arrays.equals(spkiHash, pin)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Thrown by {@link #checkServerTrusted} when the chain is trusted but has none of the pinned public keys.
+     */
+    public static class PinMismatchException extends CertificateException {
+        private static final long serialVersionUID = 1L;
+
+        public PinMismatchException() {
+            super("No pinned public key in the certificate chain");
+        }
+    }
+
+    /**
+     * A chain that passed the platform and pin checks.
+     */
+    private static final class VerifiedChain {
+        private final String authType;
+        private final byte[][] spkiHashes;
+        private final long expiresAt;
+
+        VerifiedChain(final String authType, final byte[][] spkiHashes, final long expiresAt) {
+            this.authType = authType;
+            this.spkiHashes = spkiHashes;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isValid(final String authType, final long now) {
+            return now < expiresAt && this.authType.equals(authType);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 hash of a certificate or public key, usable as map key.
+ */
+final class Sha256Key {
+
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = new ThreadLocal<MessageDigest>();
+
+    private final byte[] hash;
+    private final int hashCode;
+
+    Sha256Key(final byte[] hash) {
+        this.hash = hash;
+        this.hashCode = Arrays.hashCode(hash);
+    }
+
+    static Sha256Key of(final byte[] data) throws CertificateException {
+        return new Sha256Key(hash(data));
+    }
+
+    static byte[] hash(final byte[] data) throws CertificateException {
+        MessageDigest digest = SHA256_DIGEST.get();
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new CertificateException("SHA-256 not available", e);
+            }
+            SHA256_DIGEST.set(digest);
+        }
+        return digest.digest(data);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Sha256Key && Arrays.equals(hash, ((Sha256Key) o).hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,193 @@
+package be.idamf.android.tamperdetection.pinning;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.net.ssl.X509TrustManager;
+
+import be.idamf.android.tamperdetection.R;
+
+/**
+ * The app's own trust anchors: the certificates of the bundled BKS truststore,
+ * merged with any PEM files in the {@value #PEM_ASSET_DIR} assets directory.
+ * The anchors are loaded once, in the background after {@link #preload()}, or on first use otherwise;
+ * a load that failed is retried on the next use. Every client built on this store
+ * shares the same trust manager, so the truststore is never parsed twice.
+ */
+public final class TrustAnchorStore {
+
+    static final String PEM_ASSET_DIR = "trustanchors";
+
+    private static final String TAG = TrustAnchorStore.class.getSimpleName();
+    private static final String TRUSTSTORE_TYPE = "BKS";
+    private static final char[] TRUSTSTORE_PASSWORD = "secretpassword".toCharArray();
+
+    private static TrustAnchorStore instance;
+
+    private final Context context;
+    private FutureTask<Anchors> loader;
+
+    TrustAnchorStore(final Context context) {
+        this.context = context;
+        this.loader = newLoader();
+    }
+
+    public static synchronized TrustAnchorStore getInstance(final Context context) {
+        if (instance == null) {
+            instance = new TrustAnchorStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Start loading the anchors on a background thread, if that didn't happen yet.
+     */
+    public void preload() {
+        final FutureTask<Anchors> loader = getLoader();
+        if (loader.isDone()) {
+            return;
+        }
+        Thread thread = new Thread(loader, "TrustAnchorStore loader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return trust manager for the anchors, shared by all clients of this store
+     * @throws IOException when the anchors cannot be loaded
+     */
+    public X509TrustManager getTrustManager() throws IOException {
+        return anchors().trustManager;
+    }
+
+    /**
+     * @return a key store holding all anchors; don't modify it
+     * @throws IOException when the anchors cannot be loaded
+     */
+    public KeyStore getKeyStore() throws IOException {
+        return anchors().keyStore;
+    }
+
+    private Anchors anchors() throws IOException {
+        final FutureTask<Anchors> loader = getLoader();
+        // loads in the calling thread when preload() wasn't called, or waits for the loader thread
+        loader.run();
+        try {
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading the trust anchors");
+        } catch (ExecutionException e) {
+            retry(loader);
+            throw new IOException("Trust anchors unavailable: " + e.getCause().getMessage());
+        }
+    }
+
+    private synchronized FutureTask<Anchors> getLoader() {
+        return loader;
+    }
+
+    /**
+     * Replace a failed loader, so a transient I/O error doesn't disable the anchors for the whole process.
+     */
+    private synchronized void retry(final FutureTask<Anchors> failed) {
+        if (loader == failed) {
+            loader = newLoader();
+        }
+    }
+
+    private FutureTask<Anchors> newLoader() {
+        return new FutureTask<Anchors>(new Callable<Anchors>() {
+            @Override
+            public Anchors call() throws IOException, GeneralSecurityException {
+                return load(context);
+            }
+        });
+    }
+
+    private static Anchors load(final Context context) throws IOException, GeneralSecurityException {
+        final List<X509Certificate> certificates = new ArrayList<X509Certificate>();
+        final InputStream truststore = context.getResources().openRawResource(R.raw.truststore);
+        try {
+            final KeyStore bundled = KeyStore.getInstance(TRUSTSTORE_TYPE);
+            bundled.load(truststore, TRUSTSTORE_PASSWORD);
+            for (Enumeration<String> aliases = bundled.aliases(); aliases.hasMoreElements(); ) {
+                final Certificate certificate = bundled.getCertificate(aliases.nextElement());
+                if (certificate instanceof X509Certificate) {
+                    certificates.add((X509Certificate) certificate);
+                }
+            }
+        } finally {
+            closeQuietly(truststore);
+        }
+
+        final CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        final String[] pemFiles = context.getAssets().list(PEM_ASSET_DIR);
+        if (pemFiles != null) {
+            for (String pemFile : pemFiles) {
+                final InputStream in = context.getAssets().open(PEM_ASSET_DIR + "/" + pemFile);
+                try {
+                    for (Certificate certificate : certificateFactory.generateCertificates(in)) {
+                        if (certificate instanceof X509Certificate) {
+                            certificates.add((X509Certificate) certificate);
+                        }
+                    }
+                } catch (CertificateException e) {
+                    // skip a broken asset - the other anchors are still usable
+                    Log.d(TAG, "Skipping " + pemFile + ": " + e.getMessage());
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+        }
+        return new Anchors(certificates);
+    }
+
+    private static void closeQuietly(final InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // failed to close stream
+        }
+    }
+
+    /**
+     * The loaded anchors.
+     */
+    private static final class Anchors {
+        private final KeyStore keyStore;
+        private final X509TrustManager trustManager;
+
+        Anchors(final List<X509Certificate> certificates) throws IOException, GeneralSecurityException {
+            keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
+            final Set<Sha256Key> keys = new HashSet<Sha256Key>();
+            for (X509Certificate certificate : certificates) {
+                if (!keys.add(Sha256Key.of(certificate.getPublicKey().getEncoded()))) {
+                    // same key in several sources
+                    continue;
+                }
+                keyStore.setCertificateEntry("anchor" + keys.size(), certificate);
+            }
+            trustManager = PinningTrustManager.platformTrustManager(keyStore);
+        }
+    }
+}
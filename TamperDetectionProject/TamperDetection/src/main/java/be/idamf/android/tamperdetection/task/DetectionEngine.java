@@ -0,0 +1,184 @@
+package be.idamf.android.tamperdetection.task;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
+import be.idamf.android.tamperdetection.data.TamperReport;
+import be.idamf.android.tamperdetection.util.DetectionMetrics;
+
+/**
+ * Runs detection checks concurrently on a bounded, named thread pool and merges
+ * their outcomes into a single {@link be.idamf.android.tamperdetection.data.DetectionResult}.
+ * A run takes roughly as long as its slowest check, instead of the sum of all checks
+ * as with the serial default AsyncTask executor.
+ */
+public final class DetectionEngine {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, CPU_COUNT + 1));
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private static DetectionEngine sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final long mTimeoutMillis;
+
+    public DetectionEngine(final int poolSize, final long timeoutMillis) {
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new DetectionThreadFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    public static synchronized DetectionEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new DetectionEngine(POOL_SIZE, DEFAULT_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Run all checks at the same time and wait for them to complete.
+     * Checks that throw, or that did not finish before the engine's timeout, are left out of the result.
+     * Every check is timed and counted in {@link be.idamf.android.tamperdetection.util.DetectionMetrics},
+     * and the result carries a {@link TamperReport} with the latency of every check and the confidence
+     * of every {@link ScoredCheck}.
+     *
+     * @param checks the checks to run
+     * @return merged result
+     */
+    public DetectionResult detect(final Map<CheckType, Callable<Boolean>> checks) {
+        final long start = System.nanoTime();
+        final Map<CheckType, Future<Boolean>> futures = new EnumMap<CheckType, Future<Boolean>>(CheckType.class);
+        final InstrumentedCheck[] instrumentedChecks = new InstrumentedCheck[CheckType.values().length];
+        for (Map.Entry<CheckType, Callable<Boolean>> check : checks.entrySet()) {
+            final InstrumentedCheck instrumentedCheck = new InstrumentedCheck(check.getKey(), check.getValue());
+            instrumentedChecks[check.getKey().ordinal()] = instrumentedCheck;
+            futures.put(check.getKey(), mExecutor.submit(instrumentedCheck));
+        }
+
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(mTimeoutMillis);
+        final Map<CheckType, Boolean> results = new EnumMap<CheckType, Boolean>(CheckType.class);
+        for (Map.Entry<CheckType, Future<Boolean>> future : futures.entrySet()) {
+            try {
+                final long remaining = Math.max(0, deadline - System.nanoTime());
+                final Boolean result = future.getValue().get(remaining, TimeUnit.NANOSECONDS);
+                if (result != null) {
+                    results.put(future.getKey(), result);
+                }
+            } catch (ExecutionException e) {
+                // check failed - no result
+            } catch (CancellationException e) {
+                // check cancelled - no result
+            } catch (TimeoutException e) {
+                DetectionMetrics.recordTimeout(future.getKey());
+                future.getValue().cancel(true);
+            } catch (InterruptedException e) {
+                cancelAll(futures);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new DetectionResult(results, elapsedMillis, newReport(results, instrumentedChecks, elapsedMillis));
+    }
+
+    /**
+     * Stop accepting new checks and interrupt the ones that are still running.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private static TamperReport newReport(final Map<CheckType, Boolean> results,
+                                          final InstrumentedCheck[] instrumentedChecks, final long elapsedMillis) {
+        final int[] latencyMicros = new int[instrumentedChecks.length];
+        final Map<CheckType, Integer> confidence = new EnumMap<CheckType, Integer>(CheckType.class);
+        for (int i = 0; i < instrumentedChecks.length; i++) {
+            if (instrumentedChecks[i] != null) {
+                // checks that timed out are still running - they keep latency 0
+                latencyMicros[i] = (int) Math.min(Integer.MAX_VALUE,
+                        TimeUnit.NANOSECONDS.toMicros(instrumentedChecks[i].mElapsedNanos));
+                if (instrumentedChecks[i].mConfidence >= 0) {
+                    confidence.put(instrumentedChecks[i].mCheckType, instrumentedChecks[i].mConfidence);
+                }
+            }
+        }
+        return TamperReport.of(results, elapsedMillis, latencyMicros, confidence);
+    }
+
+    private static void cancelAll(final Map<CheckType, Future<Boolean>> futures) {
+        for (Future<Boolean> future : futures.values()) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A check that knows how sure it is of its outcome, e.g. from a score.
+     * Checks that don't implement this get {@link TamperReport#FULL_CONFIDENCE} in the report.
+     */
+    public interface ScoredCheck extends Callable<Boolean> {
+        /**
+         * @return confidence in the outcome of the last call, 0 to {@link TamperReport#FULL_CONFIDENCE}
+         */
+        int getConfidence();
+    }
+
+    /**
+     * Times a check and records its outcome.
+     */
+    private static class InstrumentedCheck implements Callable<Boolean> {
+        private final CheckType mCheckType;
+        private final Callable<Boolean> mCheck;
+        private volatile long mElapsedNanos;
+        private volatile int mConfidence = -1;
+
+        InstrumentedCheck(final CheckType checkType, final Callable<Boolean> check) {
+            mCheckType = checkType;
+            mCheck = check;
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            final long start = System.nanoTime();
+            Boolean result = null;
+            try {
+                result = mCheck.call();
+                if (mCheck instanceof ScoredCheck) {
+                    mConfidence = ((ScoredCheck) mCheck).getConfidence();
+                }
+                return result;
+            } finally {
+                mElapsedNanos = System.nanoTime() - start;
+                DetectionMetrics.recordCheck(mCheckType, mElapsedNanos, result);
+            }
+        }
+    }
+
+    private static class DetectionThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "DetectionEngine #" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
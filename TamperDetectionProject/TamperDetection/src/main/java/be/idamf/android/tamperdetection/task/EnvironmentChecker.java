@@ -3,19 +3,44 @@ package be.idamf.android.tamperdetection.task;
 import android.content.Context;
 import android.os.AsyncTask;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
 import be.idamf.android.tamperdetection.ui.EnvironmentCheckFragment;
+import be.idamf.android.tamperdetection.util.EmulatorDetector;
+import be.idamf.android.tamperdetection.util.SigningKeyVerifier;
+import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
+import be.idamf.android.tamperdetection.util.TelemetryQueue;
+import be.idamf.android.tamperdetection.util.VerdictCache;
 
 
 /**
  * Environment-checking AsyncTask.
+ * Runs all environment checks concurrently through the {@link DetectionEngine}.
  */
-public abstract class EnvironmentChecker extends AsyncTask<Void, Void, Boolean> {
+public abstract class EnvironmentChecker extends AsyncTask<Void, Void, DetectionResult> {
+
+    /**
+     * The checks that make up the environment verdict.
+     */
+    public static final Set<CheckType> ENVIRONMENT_CHECKS = Collections.unmodifiableSet(EnumSet.of(
+            CheckType.INSTALLED_THROUGH_PLAY_STORE, CheckType.DEBUGGABLE, CheckType.RUNNING_IN_EMULATOR,
+            CheckType.VALID_SIGNING_KEY, CheckType.HOOKING_FRAMEWORK, CheckType.DEBUGGER_ATTACHED));
+
     private Context mContext;
+    private SigningKeyVerifier mSigningKeyVerifier;
     protected EnvironmentCheckFragment mCallbackFragment;
 
-    public EnvironmentChecker(final Context context, final EnvironmentCheckFragment fragment) {
+    public EnvironmentChecker(final Context context, final EnvironmentCheckFragment fragment, final SigningKeyVerifier signingKeyVerifier) {
         mContext = context;
         mCallbackFragment = fragment;
+        mSigningKeyVerifier = signingKeyVerifier;
     }
 
     public void setCallbackFragment(EnvironmentCheckFragment callbackFragment) {
@@ -29,4 +54,66 @@ public abstract class EnvironmentChecker extends AsyncTask<Void, Void, Boolean>
     public EnvironmentCheckFragment getCallbackFragment() {
         return mCallbackFragment;
     }
+
+    @Override
+    protected DetectionResult doInBackground(Void... params) {
+        TamperDetectionUtils.invalidateSigningCertificateSnapshotIfUpdated(mContext);
+        DetectionResult result = DetectionEngine.getInstance().detect(newEnvironmentChecks(mContext, mSigningKeyVerifier));
+        VerdictCache.getInstance(mContext).put(result);
+        TelemetryQueue.getInstance(mContext).append(System.currentTimeMillis(), result.getReport());
+        return result;
+    }
+
+    /**
+     * The environment checks, as units of work for the {@link DetectionEngine}.
+     *
+     * @param context Context
+     * @param signingKeyVerifier the allowed signing certificate fingerprints
+     * @return environment checks
+     */
+    public static Map<CheckType, Callable<Boolean>> newEnvironmentChecks(final Context context, final SigningKeyVerifier signingKeyVerifier) {
+        Map<CheckType, Callable<Boolean>> checks = new EnumMap<CheckType, Callable<Boolean>>(CheckType.class);
+        checks.put(CheckType.INSTALLED_THROUGH_PLAY_STORE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TamperDetectionUtils.isInstalledThroughPlayStore(context);
+            }
+        });
+        checks.put(CheckType.DEBUGGABLE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TamperDetectionUtils.isDebuggable(context, true);
+            }
+        });
+        checks.put(CheckType.DEBUGGER_ATTACHED, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TamperDetectionUtils.isDebuggerAttached();
+            }
+        });
+        checks.put(CheckType.RUNNING_IN_EMULATOR, new DetectionEngine.ScoredCheck() {
+            @Override
+            public Boolean call() {
+                return TamperDetectionUtils.isRunningInEmulator();
+            }
+
+            @Override
+            public int getConfidence() {
+                return EmulatorDetector.getRunningDeviceConfidence();
+            }
+        });
+        checks.put(CheckType.VALID_SIGNING_KEY, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TamperDetectionUtils.isValidSigningKey(context, signingKeyVerifier);
+            }
+        });
+        checks.put(CheckType.HOOKING_FRAMEWORK, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return TamperDetectionUtils.isHookingFrameworkPresent();
+            }
+        });
+        return checks;
+    }
 }
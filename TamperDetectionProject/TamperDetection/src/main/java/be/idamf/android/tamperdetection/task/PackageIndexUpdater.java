@@ -0,0 +1,84 @@
+package be.idamf.android.tamperdetection.task;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.idamf.android.tamperdetection.util.InstalledPackageIndex;
+
+/**
+ * Keeps the process-wide {@link InstalledPackageIndex} up to date.
+ * The installed packages are listed through the PackageManager only once, on first use;
+ * after that the index follows the package added and removed broadcasts.
+ */
+public final class PackageIndexUpdater extends BroadcastReceiver {
+
+    private static InstalledPackageIndex sIndex;
+
+    private final InstalledPackageIndex mIndex;
+
+    private PackageIndexUpdater(final InstalledPackageIndex index) {
+        mIndex = index;
+    }
+
+    /**
+     * Get the index, building it on first use. The first call lists all installed packages,
+     * so don't make it on the main thread. When listing fails, the exception is thrown and no index is kept.
+     *
+     * @param context Context
+     * @return the index
+     */
+    public static synchronized InstalledPackageIndex getIndex(final Context context) {
+        if (sIndex == null) {
+            final Context applicationContext = context.getApplicationContext();
+            final InstalledPackageIndex index = new InstalledPackageIndex();
+            // listen before listing, so no change falls in between; the changes received while listing
+            // are replayed over the list, which may be older than they are
+            index.startRebuild();
+            final IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addDataScheme("package");
+            final PackageIndexUpdater receiver = new PackageIndexUpdater(index);
+            applicationContext.registerReceiver(receiver, filter);
+
+            final List<PackageInfo> packages;
+            try {
+                packages = applicationContext.getPackageManager().getInstalledPackages(0);
+            } catch (RuntimeException e) {
+                // e.g. a TransactionTooLargeException from a huge package list - the next call starts over
+                applicationContext.unregisterReceiver(receiver);
+                throw e;
+            }
+            final List<String> packageNames = new ArrayList<String>(packages.size());
+            for (PackageInfo packageInfo : packages) {
+                packageNames.add(packageInfo.packageName);
+            }
+            index.rebuild(packageNames);
+            sIndex = index;
+        }
+        return sIndex;
+    }
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        final Uri data = intent.getData();
+        if (data == null) {
+            return;
+        }
+        final String packageName = data.getSchemeSpecificPart();
+        if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction())) {
+            mIndex.onPackageAdded(packageName);
+        } else if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+                && !intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+            // an update is a removal followed by an addition - keep the package meanwhile
+            mIndex.onPackageRemoved(packageName);
+        }
+    }
+}
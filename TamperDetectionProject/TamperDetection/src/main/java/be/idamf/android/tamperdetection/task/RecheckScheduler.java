@@ -0,0 +1,357 @@
+package be.idamf.android.tamperdetection.task;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
+import be.idamf.android.tamperdetection.util.SigningKeyVerifier;
+import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
+import be.idamf.android.tamperdetection.util.TelemetryQueue;
+import be.idamf.android.tamperdetection.util.VerdictCache;
+
+/**
+ * Keeps re-running the detection checks in the background while started.
+ * Checks are grouped in families, each with its own interval: values that cannot change within a
+ * process (Build tags, the signing key, the debuggable flag) are re-checked rarely, volatile ones
+ * (an su binary, an attached debugger) often. While a family keeps producing the same outcome its
+ * interval doubles, up to a maximum; as soon as the outcome changes it drops back to the base interval.
+ * Every delay gets some random jitter, so families don't line up.
+ * There is one scheduler per process, see {@link #getInstance(android.content.Context, SigningKeyVerifier)},
+ * so the intervals survive the activity being recreated.
+ * The checks themselves are the units of work of {@link RootDetector} and {@link EnvironmentChecker},
+ * and run through the {@link DetectionEngine}. Every outcome is stored in the {@link VerdictCache},
+ * and its report queued in the {@link TelemetryQueue}; the process-wide scheduler opens both on its own
+ * thread, on the first run, as they make a binder call and map a file.
+ */
+public final class RecheckScheduler {
+
+    private static final double JITTER = 0.2;
+    private static final long MAX_INITIAL_DELAY_MILLIS = 10000;
+
+    /**
+     * Checks that read the signing certificate snapshot, which is dropped first when the app was updated.
+     */
+    private static final Set<CheckType> SIGNING_CERTIFICATE_CHECKS = Collections.unmodifiableSet(EnumSet.of(
+            CheckType.DEBUGGABLE, CheckType.VALID_SIGNING_KEY));
+
+    private static RecheckScheduler sInstance;
+
+    /**
+     * A group of checks that is re-run together.
+     */
+    public static final class Family {
+        private final String mName;
+        private final Set<CheckType> mCheckTypes;
+        private final long mBaseIntervalMillis;
+        private final long mMaxIntervalMillis;
+
+        public Family(final String name, final Set<CheckType> checkTypes, final long baseIntervalMillis,
+                      final long maxIntervalMillis) {
+            mName = name;
+            mCheckTypes = Collections.unmodifiableSet(EnumSet.copyOf(checkTypes));
+            mBaseIntervalMillis = baseIntervalMillis;
+            mMaxIntervalMillis = Math.max(baseIntervalMillis, maxIntervalMillis);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Set<CheckType> getCheckTypes() {
+            return mCheckTypes;
+        }
+
+        public long getBaseIntervalMillis() {
+            return mBaseIntervalMillis;
+        }
+
+        public long getMaxIntervalMillis() {
+            return mMaxIntervalMillis;
+        }
+    }
+
+    /**
+     * Receives the outcome of every re-check, on the scheduler thread.
+     */
+    public interface Listener {
+        void onRecheck(Family family, DetectionResult result, boolean changed);
+    }
+
+    private final Context mContext;
+    private final Map<CheckType, Callable<Boolean>> mChecks;
+    private final List<FamilyRun> mFamilyRuns;
+    private final DetectionEngine mEngine;
+    private volatile VerdictCache mVerdictCache;
+    private volatile TelemetryQueue mTelemetryQueue;
+    private final Random mRandom = new Random();
+    private volatile Listener mListener;
+    private ScheduledExecutorService mScheduler;
+
+    private RecheckScheduler(final Context context, final SigningKeyVerifier signingKeyVerifier) {
+        this(context, newAllChecks(context, signingKeyVerifier), defaultFamilies(), DetectionEngine.getInstance(),
+                null, null);
+    }
+
+    /**
+     * The process-wide scheduler for all root and environment checks, with the default families.
+     *
+     * @param context Context
+     * @param signingKeyVerifier the allowed signing certificate fingerprints, only used on the first call
+     * @return the scheduler
+     */
+    public static synchronized RecheckScheduler getInstance(final Context context,
+                                                            final SigningKeyVerifier signingKeyVerifier) {
+        if (sInstance == null) {
+            sInstance = new RecheckScheduler(context.getApplicationContext(), signingKeyVerifier);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param checks the units of work, by check type
+     * @param families how to group and space the checks
+     * @param engine engine that runs the checks
+     * @param verdictCache where to store the outcomes, may be null
+     */
+    public RecheckScheduler(final Map<CheckType, Callable<Boolean>> checks, final List<Family> families,
+                            final DetectionEngine engine, final VerdictCache verdictCache) {
+        this(checks, families, engine, verdictCache, null);
+    }
+
+    /**
+     * @param checks the units of work, by check type
+     * @param families how to group and space the checks
+     * @param engine engine that runs the checks
+     * @param verdictCache where to store the outcomes, may be null
+     * @param telemetryQueue where to queue the reports of every run for upload, may be null
+     */
+    public RecheckScheduler(final Map<CheckType, Callable<Boolean>> checks, final List<Family> families,
+                            final DetectionEngine engine, final VerdictCache verdictCache,
+                            final TelemetryQueue telemetryQueue) {
+        this(null, checks, families, engine, verdictCache, telemetryQueue);
+    }
+
+    private RecheckScheduler(final Context context, final Map<CheckType, Callable<Boolean>> checks,
+                             final List<Family> families, final DetectionEngine engine,
+                             final VerdictCache verdictCache, final TelemetryQueue telemetryQueue) {
+        mContext = context;
+        mChecks = new EnumMap<CheckType, Callable<Boolean>>(checks);
+        mEngine = engine;
+        mVerdictCache = verdictCache;
+        mTelemetryQueue = telemetryQueue;
+        mFamilyRuns = new ArrayList<FamilyRun>(families.size());
+        for (Family family : families) {
+            mFamilyRuns.add(new FamilyRun(family));
+        }
+    }
+
+    /**
+     * The default families: static values, including the debuggable flag of the APK, hourly at most,
+     * binaries and mounts every few minutes, su, an attached debugger, hooking frameworks, root apps
+     * and the shell probe every minute.
+     *
+     * @return default families
+     */
+    public static List<Family> defaultFamilies() {
+        return Arrays.asList(
+                new Family("static", EnumSet.of(CheckType.ROOTED_SIGNING_KEYS, CheckType.RUNNING_IN_EMULATOR,
+                        CheckType.INSTALLED_THROUGH_PLAY_STORE, CheckType.VALID_SIGNING_KEY, CheckType.DEBUGGABLE),
+                        TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(12)),
+                new Family("filesystem", EnumSet.of(CheckType.ROOTED_BINARIES, CheckType.ROOTED_MOUNTS),
+                        TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(1)),
+                new Family("volatile", EnumSet.of(CheckType.ROOTED_PROCESS, CheckType.DEBUGGER_ATTACHED,
+                        CheckType.HOOKING_FRAMEWORK, CheckType.ROOTED_PACKAGES, CheckType.ROOTED_SHELL),
+                        TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(15)));
+    }
+
+    public void setListener(final Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized boolean isStarted() {
+        return mScheduler != null;
+    }
+
+    /**
+     * Start re-checking. Every family runs once shortly after the first start, then on its own interval.
+     * After a {@link #stop()} the intervals are kept: a family that ran before is due when its interval
+     * is over, or right away when that moment passed while stopped.
+     */
+    public synchronized void start() {
+        if (mScheduler != null) {
+            return;
+        }
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RecheckScheduler");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        final long now = System.nanoTime();
+        for (FamilyRun run : mFamilyRuns) {
+            final long initialDelay;
+            if (run.mLastResult == null) {
+                initialDelay = (long) (mRandom.nextDouble() * Math.min(run.mFamily.mBaseIntervalMillis, MAX_INITIAL_DELAY_MILLIS));
+            } else {
+                initialDelay = Math.max(0, TimeUnit.NANOSECONDS.toMillis(run.mDueNanos - now));
+            }
+            mScheduler.schedule(new Execution(run, mScheduler), initialDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop re-checking. A check that is running is interrupted.
+     */
+    public synchronized void stop() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+        }
+    }
+
+    private synchronized void reschedule(final FamilyRun run, final ScheduledExecutorService scheduledOn,
+                                         final long intervalMillis) {
+        final long delayMillis = jitter(intervalMillis);
+        run.mDueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        // a run of a scheduler that has been stopped in the meantime must not come back,
+        // not even on the scheduler that was started since: that one has scheduled the family already
+        if (mScheduler != null && mScheduler == scheduledOn) {
+            mScheduler.schedule(new Execution(run, scheduledOn), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return where to store the outcomes, or null; opened on first use when the scheduler has a context
+     */
+    private VerdictCache getVerdictCache() {
+        if (mVerdictCache == null && mContext != null) {
+            mVerdictCache = VerdictCache.getInstance(mContext);
+        }
+        return mVerdictCache;
+    }
+
+    /**
+     * @return where to queue the reports, or null; opened on first use when the scheduler has a context
+     */
+    private TelemetryQueue getTelemetryQueue() {
+        if (mTelemetryQueue == null && mContext != null) {
+            mTelemetryQueue = TelemetryQueue.getInstance(mContext);
+        }
+        return mTelemetryQueue;
+    }
+
+    private long jitter(final long intervalMillis) {
+        final double factor = 1 + JITTER * (2 * mRandom.nextDouble() - 1);
+        return (long) (intervalMillis * factor);
+    }
+
+    private static Map<CheckType, Callable<Boolean>> newAllChecks(final Context context, final SigningKeyVerifier signingKeyVerifier) {
+        final Map<CheckType, Callable<Boolean>> checks = RootDetector.newRootChecks(context);
+        checks.putAll(EnvironmentChecker.newEnvironmentChecks(context, signingKeyVerifier));
+        return checks;
+    }
+
+    /**
+     * One execution of a family, on the scheduler it was submitted to.
+     */
+    private static final class Execution implements Runnable {
+        private final FamilyRun mRun;
+        private final ScheduledExecutorService mScheduledOn;
+
+        Execution(final FamilyRun run, final ScheduledExecutorService scheduledOn) {
+            mRun = run;
+            mScheduledOn = scheduledOn;
+        }
+
+        @Override
+        public void run() {
+            mRun.run(mScheduledOn);
+        }
+    }
+
+    /**
+     * The state of a family across executions. Executions of the same family never overlap: one that is
+     * still being interrupted after a stop finishes before the one of the next start begins.
+     */
+    private class FamilyRun {
+        private final Family mFamily;
+        private final Map<CheckType, Callable<Boolean>> mFamilyChecks;
+        private final boolean mReadsSigningCertificates;
+        private long mIntervalMillis;
+        private volatile DetectionResult mLastResult;
+        private long mDueNanos;
+
+        FamilyRun(final Family family) {
+            mFamily = family;
+            mFamilyChecks = new EnumMap<CheckType, Callable<Boolean>>(CheckType.class);
+            for (CheckType checkType : family.mCheckTypes) {
+                if (mChecks.containsKey(checkType)) {
+                    mFamilyChecks.put(checkType, mChecks.get(checkType));
+                }
+            }
+            mReadsSigningCertificates = !Collections.disjoint(mFamilyChecks.keySet(), SIGNING_CERTIFICATE_CHECKS);
+            mIntervalMillis = family.mBaseIntervalMillis;
+        }
+
+        synchronized void run(final ScheduledExecutorService scheduledOn) {
+            boolean interrupted = false;
+            try {
+                if (mContext != null && mReadsSigningCertificates) {
+                    TamperDetectionUtils.invalidateSigningCertificateSnapshotIfUpdated(mContext);
+                }
+                final DetectionResult result = mEngine.detect(mFamilyChecks);
+                if (Thread.currentThread().isInterrupted()) {
+                    // stopped - the next start schedules the family again
+                    interrupted = true;
+                    return;
+                }
+                final boolean changed = mLastResult == null || !sameOutcome(mLastResult, result);
+                if (changed) {
+                    mIntervalMillis = mFamily.mBaseIntervalMillis;
+                } else {
+                    mIntervalMillis = Math.min(mIntervalMillis * 2, mFamily.mMaxIntervalMillis);
+                }
+                mLastResult = result;
+                final VerdictCache verdictCache = getVerdictCache();
+                if (verdictCache != null) {
+                    verdictCache.put(result);
+                }
+                final TelemetryQueue telemetryQueue = getTelemetryQueue();
+                if (telemetryQueue != null) {
+                    telemetryQueue.append(System.currentTimeMillis(), result.getReport());
+                }
+                final Listener listener = mListener;
+                if (listener != null) {
+                    listener.onRecheck(mFamily, result, changed);
+                }
+            } finally {
+                if (!interrupted) {
+                    reschedule(this, scheduledOn, mIntervalMillis);
+                }
+            }
+        }
+
+        private boolean sameOutcome(final DetectionResult previous, final DetectionResult current) {
+            // both runs only cover the checks of this family
+            return previous.getReport().diff(current.getReport()) == 0;
+        }
+    }
+}
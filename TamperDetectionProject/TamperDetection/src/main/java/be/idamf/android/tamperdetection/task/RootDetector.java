@@ -1,17 +1,41 @@
 package be.idamf.android.tamperdetection.task;
 
+import android.content.Context;
 import android.os.AsyncTask;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
 import be.idamf.android.tamperdetection.ui.RootCheckFragment;
+import be.idamf.android.tamperdetection.util.RootDetectionUtils;
+import be.idamf.android.tamperdetection.util.TelemetryQueue;
+import be.idamf.android.tamperdetection.util.VerdictCache;
 
 
 /**
  * Root detector AsyncTask.
+ * Runs all root checks concurrently through the {@link DetectionEngine}.
  */
-public abstract class RootDetector extends AsyncTask<Void, Void, Boolean> {
+public abstract class RootDetector extends AsyncTask<Void, Void, DetectionResult> {
+
+    /**
+     * The checks that make up the root verdict.
+     */
+    public static final Set<CheckType> ROOT_CHECKS = Collections.unmodifiableSet(EnumSet.of(
+            CheckType.ROOTED_SIGNING_KEYS, CheckType.ROOTED_BINARIES, CheckType.ROOTED_PROCESS,
+            CheckType.ROOTED_MOUNTS, CheckType.ROOTED_PACKAGES, CheckType.ROOTED_SHELL));
+
+    private Context mContext;
     protected RootCheckFragment mCallbackFragment;
 
-    public RootDetector(final RootCheckFragment fragment) {
+    public RootDetector(final Context context, final RootCheckFragment fragment) {
+        mContext = context;
         mCallbackFragment = fragment;
     }
 
@@ -19,7 +43,66 @@ public abstract class RootDetector extends AsyncTask<Void, Void, Boolean> {
         mCallbackFragment = callbackFragment;
     }
 
+    public Context getContext() {
+        return mContext;
+    }
+
     public RootCheckFragment getCallbackFragment() {
         return mCallbackFragment;
     }
+
+    @Override
+    protected DetectionResult doInBackground(Void... params) {
+        DetectionResult result = DetectionEngine.getInstance().detect(newRootChecks(mContext));
+        VerdictCache.getInstance(mContext).put(result);
+        TelemetryQueue.getInstance(mContext).append(System.currentTimeMillis(), result.getReport());
+        return result;
+    }
+
+    /**
+     * The root checks, as units of work for the {@link DetectionEngine}.
+     *
+     * @param context Context
+     * @return root checks
+     */
+    public static Map<CheckType, Callable<Boolean>> newRootChecks(final Context context) {
+        Map<CheckType, Callable<Boolean>> checks = new EnumMap<CheckType, Callable<Boolean>>(CheckType.class);
+        checks.put(CheckType.ROOTED_SIGNING_KEYS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RootDetectionUtils.isRootedSigningKeys();
+            }
+        });
+        checks.put(CheckType.ROOTED_BINARIES, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RootDetectionUtils.isRootedBinariesPresent();
+            }
+        });
+        checks.put(CheckType.ROOTED_PROCESS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RootDetectionUtils.isRootedRunCommand();
+            }
+        });
+        checks.put(CheckType.ROOTED_MOUNTS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RootDetectionUtils.isRootedMounts();
+            }
+        });
+        checks.put(CheckType.ROOTED_PACKAGES, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RootDetectionUtils.isRootManagerInstalled(PackageIndexUpdater.getIndex(context));
+            }
+        });
+        checks.put(CheckType.ROOTED_SHELL, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return RootDetectionUtils.isRootedShellProbe();
+            }
+        });
+        return checks;
+    }
 }
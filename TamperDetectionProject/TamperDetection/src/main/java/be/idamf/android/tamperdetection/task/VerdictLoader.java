@@ -0,0 +1,31 @@
+package be.idamf.android.tamperdetection.task;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import be.idamf.android.tamperdetection.data.DetectionResult;
+import be.idamf.android.tamperdetection.util.VerdictCache;
+
+
+/**
+ * Loads the verdict of the previous run from the {@link VerdictCache}.
+ * The first load asks the PackageManager and reads a file, so it does not belong on the main thread;
+ * after that the verdict comes from memory.
+ */
+public abstract class VerdictLoader extends AsyncTask<Void, Void, DetectionResult> {
+
+    private Context mContext;
+
+    public VerdictLoader(final Context context) {
+        mContext = context;
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    @Override
+    protected DetectionResult doInBackground(Void... params) {
+        return VerdictCache.getInstance(mContext).get();
+    }
+}
@@ -14,8 +14,12 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import be.idamf.android.tamperdetection.R;
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
 import be.idamf.android.tamperdetection.data.PublicKeyInfo;
 import be.idamf.android.tamperdetection.task.EnvironmentChecker;
+import be.idamf.android.tamperdetection.task.VerdictLoader;
+import be.idamf.android.tamperdetection.util.SigningKeyVerifier;
 import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
 
 
@@ -25,22 +29,27 @@ import be.idamf.android.tamperdetection.util.TamperDetectionUtils;
 public class EnvironmentCheckFragment extends Fragment {
 
     /**
-     * SHA1 of the debug signing certificate (obtained through keytool)
+     * SHA1 or SHA256 fingerprints of the signing certificates of every flavor (obtained through keytool)
      */
-    private static final String SIGNING_CERTIFICATE_SHA1 = "80D8648557CF1D3BA3C7C2F21ACD2A423F1223AD";
+    private static final String[] SIGNING_CERTIFICATE_FINGERPRINTS = {
+            // debug signing certificate
+            "80D8648557CF1D3BA3C7C2F21ACD2A423F1223AD"
+    };
+    public static final SigningKeyVerifier SIGNING_KEY_VERIFIER = new SigningKeyVerifier(SIGNING_CERTIFICATE_FINGERPRINTS);
 
     private CheckBox mPlaystoreCheckBox;
     private CheckBox mDebuggableCheckBox;
+    private CheckBox mDebuggerCheckBox;
     private CheckBox mRunningInEmulator;
     private CheckBox mSigningKeyCheckBox;
+    private CheckBox mHookingCheckBox;
     private LinearLayout mSignatureInfo;
     private TextView mSignatureInfoSubject;
     private TextView mSignatureInfoIssuer;
     private TextView mSignatureInfoValidity;
-    private PlayStoreChecker mPlayStoreChecker;
-    private DebuggingChecker mDebuggingChecker;
-    private SigningKeyChecker mSigningKeyChecker;
+    private EnvironmentCheckRun mEnvironmentCheckRun;
     private SignatureInfoDumper mSignatureInfoDumper;
+    private CachedVerdictRun mCachedVerdictRun;
 
 
     @Override
@@ -50,42 +59,65 @@ public class EnvironmentCheckFragment extends Fragment {
         button.setOnClickListener(environmentCheckButtonListener);
         mPlaystoreCheckBox = (CheckBox) view.findViewById(R.id.environment_playstore);
         mDebuggableCheckBox = (CheckBox) view.findViewById(R.id.environment_debuggable);
+        mDebuggerCheckBox = (CheckBox) view.findViewById(R.id.environment_debugger);
         mRunningInEmulator = (CheckBox) view.findViewById(R.id.environment_emulator);
         mSigningKeyCheckBox = (CheckBox) view.findViewById(R.id.environment_signing_key);
+        mHookingCheckBox = (CheckBox) view.findViewById(R.id.environment_hooking);
         mSignatureInfo = (LinearLayout) view.findViewById(R.id.environment_signature_info);
         mSignatureInfoSubject = (TextView) view.findViewById(R.id.environment_signature_subject);
         mSignatureInfoIssuer = (TextView) view.findViewById(R.id.environment_signature_issuer);
         mSignatureInfoValidity = (TextView) view.findViewById(R.id.environment_signature_validity);
+        loadCachedVerdict();
         return view;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (mPlayStoreChecker != null) {
-            mPlayStoreChecker.setCallbackFragment(null);
+        if (mEnvironmentCheckRun != null) {
+            mEnvironmentCheckRun.setCallbackFragment(null);
         }
-        if (mDebuggingChecker != null) {
-            mDebuggingChecker.setCallbackFragment(null);
+        if (mCachedVerdictRun != null) {
+            mCachedVerdictRun.setCallbackFragment(null);
         }
-        if (mSigningKeyChecker != null) {
-            mSigningKeyChecker.setCallbackFragment(null);
+        if (mSignatureInfoDumper != null) {
+            mSignatureInfoDumper.setCallbackFragment(null);
         }
     }
 
-    private void setPlaystoreCheckResult(final Boolean playstoreInstalled) {
-        setCheckResult(playstoreInstalled, mPlaystoreCheckBox);
+    /**
+     * Show the verdict of the previous run as soon as it is loaded, and refresh it in the background.
+     */
+    private void loadCachedVerdict() {
+        mCachedVerdictRun = new CachedVerdictRun(getActivity().getApplicationContext(), EnvironmentCheckFragment.this);
+        mCachedVerdictRun.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
-    private void setDebuggableCheckResult(final Boolean debuggable) {
-        setCheckResult(debuggable, mDebuggableCheckBox);
+    private void showCachedVerdict(final DetectionResult cached) {
+        if (mEnvironmentCheckRun != null) {
+            // a fresh run was started meanwhile - its result is due soon
+            return;
+        }
+        if (cached != null && cached.getCheckTypes().containsAll(EnvironmentChecker.ENVIRONMENT_CHECKS)) {
+            setEnvironmentCheckResult(cached);
+            doEnvironmentCheck();
+        }
     }
 
-    private void setSigningKeyCheckResult(final Boolean validSigningKey) {
-        setCheckResult(validSigningKey, mSigningKeyCheckBox);
+    private void setEnvironmentCheckResult(final DetectionResult result) {
+        setCheckResult(result.getResult(CheckType.INSTALLED_THROUGH_PLAY_STORE), mPlaystoreCheckBox);
+        setCheckResult(result.getResult(CheckType.DEBUGGABLE), mDebuggableCheckBox);
+        setCheckResult(result.getResult(CheckType.DEBUGGER_ATTACHED), mDebuggerCheckBox);
+        setCheckResult(result.getResult(CheckType.RUNNING_IN_EMULATOR), mRunningInEmulator);
+        setCheckResult(result.getResult(CheckType.VALID_SIGNING_KEY), mSigningKeyCheckBox);
+        setCheckResult(result.getResult(CheckType.HOOKING_FRAMEWORK), mHookingCheckBox);
     }
 
     private void setCheckResult(final Boolean enabled, final CheckBox checkBox) {
+        if (enabled == null) {
+            // check did not complete - leave the checkbox untouched
+            return;
+        }
         checkBox.setEnabled(true);
         if (enabled) {
             checkBox.setChecked(true);
@@ -94,11 +126,6 @@ public class EnvironmentCheckFragment extends Fragment {
         }
     }
 
-    private void checkIfRunningInEmulator() {
-        boolean runningInEmulator = TamperDetectionUtils.isRunningInEmulator();
-        setCheckResult(runningInEmulator, mRunningInEmulator);
-    }
-
     private void setPublicKeyInfo(final PublicKeyInfo publicKeyInfo) {
         if (publicKeyInfo != null) {
             mSignatureInfo.setVisibility(View.VISIBLE);
@@ -113,15 +140,10 @@ public class EnvironmentCheckFragment extends Fragment {
     }
 
     private void doEnvironmentCheck() {
-        mPlayStoreChecker = new PlayStoreChecker(getActivity(), EnvironmentCheckFragment.this);
-        mPlayStoreChecker.execute();
-        mDebuggingChecker = new DebuggingChecker(getActivity(), EnvironmentCheckFragment.this);
-        mDebuggingChecker.execute();
-        mSigningKeyChecker = new SigningKeyChecker(getActivity(), EnvironmentCheckFragment.this);
-        mSigningKeyChecker.execute();
+        mEnvironmentCheckRun = new EnvironmentCheckRun(getActivity(), EnvironmentCheckFragment.this);
+        mEnvironmentCheckRun.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         mSignatureInfoDumper = new SignatureInfoDumper(getActivity(), EnvironmentCheckFragment.this);
-        mSignatureInfoDumper.execute();
-        checkIfRunningInEmulator();
+        mSignatureInfoDumper.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     View.OnClickListener environmentCheckButtonListener = new View.OnClickListener() {
@@ -131,62 +153,16 @@ public class EnvironmentCheckFragment extends Fragment {
         }
     };
 
-    static class PlayStoreChecker extends EnvironmentChecker {
-
-        public PlayStoreChecker(Context context, EnvironmentCheckFragment fragment) {
-            super(context, fragment);
-        }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean playstore = TamperDetectionUtils.isInstalledThroughPlayStore(getContext());
-            return playstore;
-        }
-
-        @Override
-        protected void onPostExecute(Boolean result) {
-            if (getCallbackFragment() != null) {
-                mCallbackFragment.setPlaystoreCheckResult(result);
-            }
-        }
-    }
-
-    static class DebuggingChecker extends EnvironmentChecker {
-
-        public DebuggingChecker(Context context, EnvironmentCheckFragment fragment) {
-            super(context, fragment);
-        }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean debuggable = TamperDetectionUtils.isDebuggable(getContext(), true);
-            return debuggable;
-        }
-
-        @Override
-        protected void onPostExecute(Boolean result) {
-            if (getCallbackFragment() != null) {
-                mCallbackFragment.setDebuggableCheckResult(result);
-            }
-        }
-    }
+    static class EnvironmentCheckRun extends EnvironmentChecker {
 
-    static class SigningKeyChecker extends EnvironmentChecker {
-
-        public SigningKeyChecker(Context context, EnvironmentCheckFragment fragment) {
-            super(context, fragment);
-        }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean validSigningKey = TamperDetectionUtils.isValidSigningKey(getContext(), SIGNING_CERTIFICATE_SHA1);
-            return validSigningKey;
+        public EnvironmentCheckRun(Context context, EnvironmentCheckFragment fragment) {
+            super(context, fragment, SIGNING_KEY_VERIFIER);
         }
 
         @Override
-        protected void onPostExecute(Boolean result) {
+        protected void onPostExecute(DetectionResult result) {
             if (getCallbackFragment() != null) {
-                mCallbackFragment.setSigningKeyCheckResult(result);
+                mCallbackFragment.setEnvironmentCheckResult(result);
             }
         }
     }
@@ -217,4 +193,24 @@ public class EnvironmentCheckFragment extends Fragment {
             }
         }
     }
+
+    static class CachedVerdictRun extends VerdictLoader {
+        private EnvironmentCheckFragment mCallbackFragment;
+
+        public CachedVerdictRun(Context context, EnvironmentCheckFragment fragment) {
+            super(context);
+            mCallbackFragment = fragment;
+        }
+
+        public void setCallbackFragment(EnvironmentCheckFragment callbackFragment) {
+            mCallbackFragment = callbackFragment;
+        }
+
+        @Override
+        protected void onPostExecute(DetectionResult result) {
+            if (mCallbackFragment != null) {
+                mCallbackFragment.showCachedVerdict(result);
+            }
+        }
+    }
 }
@@ -4,32 +4,22 @@ import android.app.Fragment;
 import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.Toast;
 
-import com.squareup.okhttp.OkHttpClient;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import be.idamf.android.tamperdetection.R;
+import be.idamf.android.tamperdetection.data.Endpoint;
+import be.idamf.android.tamperdetection.data.VerificationResult;
+import be.idamf.android.tamperdetection.pinning.EndpointVerifier;
 
 /**
  * Fragment for network checks.
@@ -38,7 +28,10 @@ public class NetworkCheckFragment extends Fragment {
 
     public static final String HTTPS_TEST_URL = "https://android.maelbrancke.net";
 
-    private static final String TAG = NetworkCheckFragment.class.getSimpleName();
+    /**
+     * Hex SHA-256 hashes of the public keys the test server may present; empty to only check the chain.
+     */
+    private static final List<String> HTTPS_TEST_PINS = Collections.emptyList();
 
     private NetworkChecker mNetworkChecker;
 
@@ -62,52 +55,30 @@ public class NetworkCheckFragment extends Fragment {
 
     private void doNetworkingWithCustomCert() {
         mNetworkChecker = new NetworkChecker(getActivity(), NetworkCheckFragment.this);
-        mNetworkChecker.execute(true);
+        mNetworkChecker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, true);
     }
 
     private void doNetworkingWithoutCustomCert() {
         mNetworkChecker = new NetworkChecker(getActivity(), NetworkCheckFragment.this);
-        mNetworkChecker.execute(false);
-    }
-
-    private void showNetworkingResult(final String result) {
-        Toast.makeText(getActivity(), result, Toast.LENGTH_LONG).show();
+        mNetworkChecker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, false);
     }
 
-    private static SSLSocketFactory newSslSocketFactory(final Context context) {
-        SSLSocketFactory sslSocketFactory = null;
-        try {
-            KeyStore trustSelfSignedKeyStore = KeyStore.getInstance("BKS");
-            trustSelfSignedKeyStore.load( context.getResources().openRawResource(R.raw.truststore), "secretpassword".toCharArray() );
-            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            trustManagerFactory.init(trustSelfSignedKeyStore);
-
-            // create SslContext
-            SSLContext selfSignedCertSslContext = SSLContext.getInstance("TLS");
-            selfSignedCertSslContext.init(null, trustManagerFactory.getTrustManagers(), new SecureRandom());
-            sslSocketFactory = selfSignedCertSslContext.getSocketFactory();
-        } catch (KeyStoreException e) {
-            Log.d(TAG, "Keystore problem: " + e.getMessage());
-        } catch (CertificateException e) {
-            Log.d(TAG, "Certificate problem: " + e.getMessage());
-        } catch (NoSuchAlgorithmException e) {
-            Log.d(TAG, "Algorithm problem: " + e.getMessage());
-        } catch (IOException e) {
-            Log.d(TAG, "IO problem: " + e.getMessage());
-        } catch (KeyManagementException e) {
-            Log.d(TAG, "Key problem: " + e.getMessage());
-        }
-        return sslSocketFactory;
+    /**
+     * The endpoints to verify. Backends with pins are verified in parallel; add them here.
+     *
+     * @param appAnchorsOnly true to only trust the app's own trust anchors
+     * @return endpoints
+     * @throws MalformedURLException when an URL is invalid
+     */
+    static List<Endpoint> newEndpoints(final boolean appAnchorsOnly) throws MalformedURLException {
+        List<Endpoint> endpoints = new ArrayList<Endpoint>();
+        endpoints.add(new Endpoint("Test server", new URL(HTTPS_TEST_URL), HTTPS_TEST_PINS, appAnchorsOnly,
+                Endpoint.DEFAULT_TIMEOUT_MILLIS));
+        return endpoints;
     }
 
-    public static byte[] readFully(InputStream input) throws IOException {
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        while ((bytesRead = input.read(buffer)) != -1) {
-            output.write(buffer, 0, bytesRead);
-        }
-        return output.toByteArray();
+    private void showNetworkingResult(final String result) {
+        Toast.makeText(getActivity(), result, Toast.LENGTH_LONG).show();
     }
 
     View.OnClickListener networkSelfSignedCertCheck = new View.OnClickListener() {
@@ -124,7 +95,7 @@ public class NetworkCheckFragment extends Fragment {
         }
     };
 
-    static class NetworkChecker extends AsyncTask<Boolean, Void, String> {
+    static class NetworkChecker extends AsyncTask<Boolean, VerificationResult, Void> {
         private Context mContext;
         private NetworkCheckFragment mCallbackFragment;
 
@@ -138,39 +109,39 @@ public class NetworkCheckFragment extends Fragment {
         }
 
         @Override
-        protected String doInBackground(Boolean... params) {
+        protected Void doInBackground(Boolean... params) {
             boolean customSslSocketFactory = params[0];
-            InputStream in = null;
-            String result = null;
+            List<Endpoint> endpoints;
             try {
-                URL url = new URL(HTTPS_TEST_URL);
-                OkHttpClient okHttpClient = new OkHttpClient();
-                if (customSslSocketFactory) {
-                    okHttpClient.setSslSocketFactory(newSslSocketFactory(mContext));
-                }
-                HttpURLConnection connection = okHttpClient.open(url);
-                in = connection.getInputStream();
-                byte[] response = readFully(in);
-                result = new String(response, "UTF-8");
-            } catch (Exception e) {
-                return e.getMessage();
-            } finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+                endpoints = newEndpoints(customSslSocketFactory);
+            } catch (MalformedURLException e) {
+                // constant URLs - never happens
+                return null;
             }
-            return result;
+            EndpointVerifier.getInstance(mContext).verifyAll(endpoints, new EndpointVerifier.Listener() {
+                @Override
+                public void onResult(Endpoint endpoint, VerificationResult result) {
+                    publishProgress(result);
+                }
+            });
+            return null;
         }
 
         @Override
-        protected void onPostExecute(String s) {
+        protected void onProgressUpdate(VerificationResult... results) {
             if (mCallbackFragment != null) {
-                mCallbackFragment.showNetworkingResult(s);
+                mCallbackFragment.showNetworkingResult(format(results[0]));
+            }
+        }
+
+        private static String format(final VerificationResult result) {
+            if (!result.isSuccess()) {
+                return result.getName() + ": " + result.getError();
             }
+            final String handshake = result.getHandshakeMicros() == VerificationResult.NO_HANDSHAKE
+                    ? "pooled connection" : "handshake " + result.getHandshakeMicros() / 1000 + " ms";
+            return result.getName() + ": HTTP " + result.getResponseCode() + ", " + result.getBytesRead() + " bytes"
+                    + ", " + handshake + ", pin " + result.getPinStatus();
         }
     }
 }
@@ -1,6 +1,8 @@
 package be.idamf.android.tamperdetection.ui;
 
 import android.app.Fragment;
+import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,8 +11,10 @@ import android.widget.Button;
 import android.widget.CheckBox;
 
 import be.idamf.android.tamperdetection.R;
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
 import be.idamf.android.tamperdetection.task.RootDetector;
-import be.idamf.android.tamperdetection.util.RootDetectionUtils;
+import be.idamf.android.tamperdetection.task.VerdictLoader;
 
 
 /**
@@ -22,10 +26,11 @@ public class RootCheckFragment extends Fragment {
     private CheckBox mRootedSigningKeysCheckBox;
     private CheckBox mRootedBinariesCheckBox;
     private CheckBox mRootedProcessCheckBox;
-    private RootedDetector mRootedDetector;
-    private RootedSigningKeysDetector mRootedSigningKeysDetector;
-    private RootedBinariesDetector mRootedBinariesDetector;
-    private RootedProcessDetector mRootedProcessDetector;
+    private CheckBox mRootedMountsCheckBox;
+    private CheckBox mRootedPackagesCheckBox;
+    private CheckBox mRootedShellCheckBox;
+    private RootDetectionRun mRootDetectionRun;
+    private CachedVerdictRun mCachedVerdictRun;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -36,43 +41,58 @@ public class RootCheckFragment extends Fragment {
         mRootedSigningKeysCheckBox = (CheckBox) view.findViewById(R.id.rooted_signing_keys);
         mRootedBinariesCheckBox = (CheckBox) view.findViewById(R.id.rooted_binaries);
         mRootedProcessCheckBox = (CheckBox) view.findViewById(R.id.rooted_process);
+        mRootedMountsCheckBox = (CheckBox) view.findViewById(R.id.rooted_mounts);
+        mRootedPackagesCheckBox = (CheckBox) view.findViewById(R.id.rooted_packages);
+        mRootedShellCheckBox = (CheckBox) view.findViewById(R.id.rooted_shell);
+        loadCachedVerdict();
         return view;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (mRootedDetector != null) {
-            mRootedDetector.setCallbackFragment(null);
+        if (mRootDetectionRun != null) {
+            mRootDetectionRun.setCallbackFragment(null);
         }
-        if (mRootedSigningKeysDetector != null) {
-            mRootedSigningKeysDetector.setCallbackFragment(null);
-        }
-        if (mRootedBinariesDetector != null) {
-            mRootedBinariesDetector.setCallbackFragment(null);
-        }
-        if (mRootedProcessDetector != null) {
-            mRootedProcessDetector.setCallbackFragment(null);
+        if (mCachedVerdictRun != null) {
+            mCachedVerdictRun.setCallbackFragment(null);
         }
     }
 
-    private void setRootedCheckResult(final Boolean rooted) {
-        setCheckResult(rooted, mRootedCheckBox);
+    /**
+     * Show the verdict of the previous run as soon as it is loaded, and refresh it in the background.
+     */
+    private void loadCachedVerdict() {
+        mCachedVerdictRun = new CachedVerdictRun(getActivity().getApplicationContext(), RootCheckFragment.this);
+        mCachedVerdictRun.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
-    private void setRootedBinariesCheckResult(final Boolean rooted) {
-        setCheckResult(rooted, mRootedBinariesCheckBox);
-    }
-
-    private void setRootedSigningKeysCheckResult(final Boolean rooted) {
-        setCheckResult(rooted, mRootedSigningKeysCheckBox);
+    private void showCachedVerdict(final DetectionResult cached) {
+        if (mRootDetectionRun != null) {
+            // a fresh run was started meanwhile - its result is due soon
+            return;
+        }
+        if (cached != null && cached.getCheckTypes().containsAll(RootDetector.ROOT_CHECKS)) {
+            setRootDetectionResult(cached);
+            doRootDetection();
+        }
     }
 
-    private void setRootedProcessCheckResult(final Boolean rooted) {
-        setCheckResult(rooted, mRootedProcessCheckBox);
+    private void setRootDetectionResult(final DetectionResult result) {
+        setCheckResult(result.isAnyDetected(RootDetector.ROOT_CHECKS), mRootedCheckBox);
+        setCheckResult(result.getResult(CheckType.ROOTED_SIGNING_KEYS), mRootedSigningKeysCheckBox);
+        setCheckResult(result.getResult(CheckType.ROOTED_BINARIES), mRootedBinariesCheckBox);
+        setCheckResult(result.getResult(CheckType.ROOTED_PROCESS), mRootedProcessCheckBox);
+        setCheckResult(result.getResult(CheckType.ROOTED_MOUNTS), mRootedMountsCheckBox);
+        setCheckResult(result.getResult(CheckType.ROOTED_PACKAGES), mRootedPackagesCheckBox);
+        setCheckResult(result.getResult(CheckType.ROOTED_SHELL), mRootedShellCheckBox);
     }
 
     private void setCheckResult(final Boolean enabled, final CheckBox checkBox) {
+        if (enabled == null) {
+            // check did not complete - leave the checkbox untouched
+            return;
+        }
         checkBox.setEnabled(true);
         if (enabled) {
             checkBox.setChecked(true);
@@ -82,14 +102,8 @@ public class RootCheckFragment extends Fragment {
     }
 
     private void doRootDetection() {
-        mRootedDetector = new RootedDetector(RootCheckFragment.this);
-        mRootedDetector.execute();
-        mRootedSigningKeysDetector = new RootedSigningKeysDetector(RootCheckFragment.this);
-        mRootedSigningKeysDetector.execute();
-        mRootedBinariesDetector = new RootedBinariesDetector(RootCheckFragment.this);
-        mRootedBinariesDetector.execute();
-        mRootedProcessDetector = new RootedProcessDetector(RootCheckFragment.this);
-        mRootedProcessDetector.execute();
+        mRootDetectionRun = new RootDetectionRun(getActivity().getApplicationContext(), RootCheckFragment.this);
+        mRootDetectionRun.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     View.OnClickListener rootDetectionButtonListener = new View.OnClickListener() {
@@ -99,82 +113,36 @@ public class RootCheckFragment extends Fragment {
         }
     };
 
-    static class RootedDetector extends RootDetector {
+    static class RootDetectionRun extends RootDetector {
 
-        public RootedDetector(RootCheckFragment fragment) {
-            super(fragment);
+        public RootDetectionRun(Context context, RootCheckFragment fragment) {
+            super(context, fragment);
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean rooted = RootDetectionUtils.isRooted(true);
-            return rooted;
-        }
-
-        @Override
-        protected void onPostExecute(Boolean result) {
+        protected void onPostExecute(DetectionResult result) {
             if (getCallbackFragment() != null) {
-                mCallbackFragment.setRootedCheckResult(result);
+                mCallbackFragment.setRootDetectionResult(result);
             }
         }
     }
 
-    static class RootedSigningKeysDetector extends RootDetector {
+    static class CachedVerdictRun extends VerdictLoader {
+        private RootCheckFragment mCallbackFragment;
 
-        public RootedSigningKeysDetector(RootCheckFragment fragment) {
-            super(fragment);
+        public CachedVerdictRun(Context context, RootCheckFragment fragment) {
+            super(context);
+            mCallbackFragment = fragment;
         }
 
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean rooted = RootDetectionUtils.isRootedSigningKeys();
-            return rooted;
+        public void setCallbackFragment(RootCheckFragment callbackFragment) {
+            mCallbackFragment = callbackFragment;
         }
 
         @Override
-        protected void onPostExecute(Boolean result) {
-            if (getCallbackFragment() != null) {
-                mCallbackFragment.setRootedSigningKeysCheckResult(result);
-            }
-        }
-    }
-
-    static class RootedBinariesDetector extends RootDetector {
-
-        public RootedBinariesDetector(RootCheckFragment fragment) {
-            super(fragment);
-        }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean rooted = RootDetectionUtils.isRootedBinariesPresent();
-            return rooted;
-        }
-
-        @Override
-        protected void onPostExecute(Boolean result) {
-            if (getCallbackFragment() != null) {
-                mCallbackFragment.setRootedBinariesCheckResult(result);
-            }
-        }
-    }
-
-    static class RootedProcessDetector extends RootDetector {
-
-        public RootedProcessDetector(RootCheckFragment fragment) {
-            super(fragment);
-        }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean rooted = RootDetectionUtils.isRootedRunCommand();
-            return rooted;
-        }
-
-        @Override
-        protected void onPostExecute(Boolean result) {
-            if (getCallbackFragment() != null) {
-                mCallbackFragment.setRootedProcessCheckResult(result);
+        protected void onPostExecute(DetectionResult result) {
+            if (mCallbackFragment != null) {
+                mCallbackFragment.showCachedVerdict(result);
             }
         }
     }
@@ -0,0 +1,91 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Looks for suspicious file names in a set of candidate directories.
+ * Each directory is listed once and its entries are matched against a hashed set of names,
+ * so for the directories that can be listed the cost does not grow with the number of names.
+ * Apps can't list several of the usual directories (/sbin, /data/local and below, /system/sd/xbin);
+ * those are probed with a stat per name of a separate, small set of probed names only.
+ */
+public class BinaryScanner {
+
+    private final String[] directories;
+    private final Set<String> names;
+    private final String[] probedNames;
+
+    /**
+     * @param directories candidate directories
+     * @param names names to look for in the directories that can be listed
+     * @param probedNames names to stat in the directories that can't be listed
+     */
+    public BinaryScanner(final Collection<String> directories, final Collection<String> names,
+                         final Collection<String> probedNames) {
+        this.directories = directories.toArray(new String[directories.size()]);
+        this.names = Collections.unmodifiableSet(new HashSet<String>(names));
+        this.probedNames = probedNames.toArray(new String[probedNames.size()]);
+    }
+
+    public BinaryScanner(final String[] directories, final String[] names, final String[] probedNames) {
+        this(Arrays.asList(directories), Arrays.asList(names), Arrays.asList(probedNames));
+    }
+
+    public Set<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return true when at least one of the names is present in one of the directories
+     */
+    public boolean isAnyPresent() {
+        return findFirst() != null;
+    }
+
+    /**
+     * Scan the directories and stop at the first match.
+     *
+     * @return the full path of the first match, or null when nothing was found
+     */
+    public String findFirst() {
+        for (String directory : directories) {
+            final String match = findIn(directory);
+            if (match != null) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    private String findIn(final String directory) {
+        final String[] entries = new File(directory).list();
+        if (entries != null) {
+            for (String entry : entries) {
+                if (names.contains(entry)) {
+                    return join(directory, entry);
+                }
+            }
+            return null;
+        }
+        // not listable (or not a directory): probe the few names that matter directly
+        for (String name : probedNames) {
+            final String path = join(directory, name);
+            if (new File(path).exists()) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private static String join(final String directory, final String name) {
+        if (directory.endsWith("/")) {
+            return directory + name;
+        }
+        return directory + "/" + name;
+    }
+}
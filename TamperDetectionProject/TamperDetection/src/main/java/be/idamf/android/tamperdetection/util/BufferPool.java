@@ -0,0 +1,56 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized byte buffers, so streams can be read without a new buffer per read.
+ * When the pool is empty a new buffer is allocated; buffers returned to a full pool are dropped.
+ */
+public final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(final int bufferSize, final int maxPooled) {
+        if (bufferSize <= 0 || maxPooled < 0) {
+            throw new IllegalArgumentException("Invalid pool size: " + maxPooled + " x " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a buffer of {@link #getBufferSize()} bytes, with undefined content
+     */
+    public byte[] acquire() {
+        final byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back. It must not be used by the caller afterwards.
+     *
+     * @param buffer a buffer from {@link #acquire()}
+     */
+    public void release(final byte[] buffer) {
+        if (buffer.length != bufferSize) {
+            throw new IllegalArgumentException("Buffer not from this pool");
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import be.idamf.android.tamperdetection.data.CheckType;
+
+/**
+ * Process-wide counters for the detection checks: outcomes and a latency histogram per check,
+ * and the number of errors that were swallowed, by type.
+ * Recording is lock-free and does not allocate; telemetry reads the counters through {@link #snapshot()}.
+ */
+public final class DetectionMetrics {
+
+    /**
+     * Errors that are swallowed by the checks, which then fall back to a default verdict.
+     */
+    public enum ErrorType {
+        /** The app's own package info could not be found. */
+        NAME_NOT_FOUND,
+        /** A signing certificate could not be parsed. */
+        CERTIFICATE,
+        /** A fingerprint algorithm is not available. */
+        NO_SUCH_ALGORITHM,
+        /** A shell command could not be started. */
+        EXEC_START_FAILED,
+        /** A shell command was destroyed after its deadline. */
+        EXEC_TIMED_OUT,
+        /** A shell command was refused because too many were running. */
+        EXEC_REJECTED,
+        /** The caller was interrupted while waiting for a shell command. */
+        EXEC_INTERRUPTED,
+        /** The persistent shell died or was destroyed during a batch. */
+        SHELL_DIED,
+        /** The persistent shell could not be started. */
+        SHELL_UNAVAILABLE
+    }
+
+    /**
+     * Upper bounds of the latency buckets, in microseconds. The last bucket holds everything slower.
+     */
+    private static final long[] BUCKET_BOUNDS_MICROS = {50, 100, 250, 500, 1000, 2500, 5000, 10000,
+            25000, 50000, 100000, 250000, 500000, 1000000, 2500000};
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_MICROS.length];
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = TimeUnit.MICROSECONDS.toNanos(BUCKET_BOUNDS_MICROS[i]);
+        }
+    }
+
+    // layout of the counters of one check
+    private static final int DETECTED = 0;
+    private static final int NOT_DETECTED = 1;
+    private static final int FAILED = 2;
+    private static final int TIMED_OUT = 3;
+    private static final int TOTAL_NANOS = 4;
+    private static final int MAX_NANOS = 5;
+    private static final int FIRST_BUCKET = 6;
+    private static final int BUCKET_COUNT = BUCKET_BOUNDS_MICROS.length + 1;
+    private static final int STRIDE = FIRST_BUCKET + BUCKET_COUNT;
+
+    private static final CheckType[] CHECK_TYPES = CheckType.values();
+    private static final ErrorType[] ERRORS = ErrorType.values();
+
+    private static final AtomicLongArray checkCounters = new AtomicLongArray(CHECK_TYPES.length * STRIDE);
+    private static final AtomicLongArray errorCounters = new AtomicLongArray(ERRORS.length);
+
+    private DetectionMetrics() {
+    }
+
+    /**
+     * Record a finished check.
+     *
+     * @param checkType the check
+     * @param elapsedNanos how long the check took
+     * @param result the verdict, or null when the check threw
+     */
+    public static void recordCheck(final CheckType checkType, final long elapsedNanos, final Boolean result) {
+        final int base = checkType.ordinal() * STRIDE;
+        final int outcome = result == null ? FAILED : result ? DETECTED : NOT_DETECTED;
+        checkCounters.incrementAndGet(base + outcome);
+        checkCounters.addAndGet(base + TOTAL_NANOS, elapsedNanos);
+        checkCounters.incrementAndGet(base + FIRST_BUCKET + bucketOf(elapsedNanos));
+        long max = checkCounters.get(base + MAX_NANOS);
+        while (elapsedNanos > max && !checkCounters.compareAndSet(base + MAX_NANOS, max, elapsedNanos)) {
+            max = checkCounters.get(base + MAX_NANOS);
+        }
+    }
+
+    /**
+     * Record a check that was given up on because it did not finish in time.
+     * Its latency is still recorded once it does finish.
+     *
+     * @param checkType the check
+     */
+    public static void recordTimeout(final CheckType checkType) {
+        checkCounters.incrementAndGet(checkType.ordinal() * STRIDE + TIMED_OUT);
+    }
+
+    /**
+     * Record an error that was swallowed.
+     *
+     * @param error the type of error
+     */
+    public static void recordError(final ErrorType error) {
+        errorCounters.incrementAndGet(error.ordinal());
+    }
+
+    /**
+     * Copy the current counters.
+     * Counters are read one by one while checks may still be recording,
+     * so the totals of a snapshot can be off by the checks that were in flight.
+     *
+     * @return snapshot
+     */
+    public static Snapshot snapshot() {
+        final Map<CheckType, CheckMetrics> checks = new EnumMap<CheckType, CheckMetrics>(CheckType.class);
+        for (CheckType checkType : CHECK_TYPES) {
+            final int base = checkType.ordinal() * STRIDE;
+            final long[] buckets = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = checkCounters.get(base + FIRST_BUCKET + i);
+            }
+            checks.put(checkType, new CheckMetrics(checkCounters.get(base + DETECTED),
+                    checkCounters.get(base + NOT_DETECTED), checkCounters.get(base + FAILED),
+                    checkCounters.get(base + TIMED_OUT), checkCounters.get(base + TOTAL_NANOS),
+                    checkCounters.get(base + MAX_NANOS), buckets));
+        }
+        final Map<ErrorType, Long> errors = new EnumMap<ErrorType, Long>(ErrorType.class);
+        for (ErrorType error : ERRORS) {
+            errors.put(error, errorCounters.get(error.ordinal()));
+        }
+        return new Snapshot(System.currentTimeMillis(), checks, errors);
+    }
+
+    /**
+     * Set all counters back to zero, e.g. after telemetry uploaded a snapshot.
+     */
+    public static void reset() {
+        for (int i = 0; i < checkCounters.length(); i++) {
+            checkCounters.set(i, 0);
+        }
+        for (int i = 0; i < errorCounters.length(); i++) {
+            errorCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * @return upper bounds of the latency buckets in microseconds; the last bucket has no upper bound
+     */
+    public static long[] getBucketBoundsMicros() {
+        return BUCKET_BOUNDS_MICROS.clone();
+    }
+
+    private static int bucketOf(final long elapsedNanos) {
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            if (elapsedNanos <= BUCKET_BOUNDS_NANOS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_NANOS.length;
+    }
+
+    /**
+     * The counters of all checks and errors at one point in time.
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+        private final Map<CheckType, CheckMetrics> checks;
+        private final Map<ErrorType, Long> errors;
+
+        Snapshot(final long timestamp, final Map<CheckType, CheckMetrics> checks, final Map<ErrorType, Long> errors) {
+            this.timestamp = timestamp;
+            this.checks = checks;
+            this.errors = errors;
+        }
+
+        /**
+         * @return wall clock time the snapshot was taken
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public CheckMetrics getCheckMetrics(final CheckType checkType) {
+            return checks.get(checkType);
+        }
+
+        public long getErrorCount(final ErrorType error) {
+            return errors.get(error);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{timestamp=" + timestamp + ", checks=" + checks + ", errors=" + errors + '}';
+        }
+    }
+
+    /**
+     * The counters of one check.
+     */
+    public static final class CheckMetrics {
+        private final long detectedCount;
+        private final long notDetectedCount;
+        private final long failedCount;
+        private final long timedOutCount;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        CheckMetrics(final long detectedCount, final long notDetectedCount, final long failedCount,
+                     final long timedOutCount, final long totalNanos, final long maxNanos, final long[] buckets) {
+            this.detectedCount = detectedCount;
+            this.notDetectedCount = notDetectedCount;
+            this.failedCount = failedCount;
+            this.timedOutCount = timedOutCount;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * @return number of runs that finished, with or without a verdict
+         */
+        public long getCount() {
+            return detectedCount + notDetectedCount + failedCount;
+        }
+
+        public long getDetectedCount() {
+            return detectedCount;
+        }
+
+        public long getNotDetectedCount() {
+            return notDetectedCount;
+        }
+
+        /**
+         * @return number of runs that threw instead of giving a verdict
+         */
+        public long getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return number of runs that were given up on after the detection timeout
+         */
+        public long getTimedOutCount() {
+            return timedOutCount;
+        }
+
+        public long getMeanMicros() {
+            final long count = getCount();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / count);
+        }
+
+        public long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+        }
+
+        /**
+         * @return run counts per latency bucket, see {@link DetectionMetrics#getBucketBoundsMicros()}
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        /**
+         * Estimate a latency percentile from the histogram.
+         *
+         * @param percentile between 0 and 100
+         * @return upper bound of the bucket holding the percentile in microseconds,
+         * the maximum when it falls in the last bucket, or 0 when there are no runs
+         */
+        public long getPercentileMicros(final double percentile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS_MICROS[i];
+                }
+            }
+            return getMaxMicros();
+        }
+
+        @Override
+        public String toString() {
+            return "CheckMetrics{detected=" + detectedCount + ", notDetected=" + notDetectedCount
+                    + ", failed=" + failedCount + ", timedOut=" + timedOutCount
+                    + ", meanMicros=" + getMeanMicros() + ", maxMicros=" + getMaxMicros()
+                    + ", buckets=" + Arrays.toString(buckets) + '}';
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package be.idamf.android.tamperdetection.util;
+
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scores {@link android.os.Build} values against a table of emulator signatures.
+ * All rules are compiled into one {@link MultiPatternMatcher}, so each field is scanned only once
+ * no matter how many signatures the table holds. Matching is case-sensitive, like the checks on
+ * {@link android.os.Build} it replaces. A weak signature alone never marks a device as an emulator:
+ * it takes a strong one, or four weak ones.
+ * The Build values never change within a process, so the verdict for the running device is
+ * computed once and memoized, see {@link #isRunningInEmulator()}.
+ */
+public final class EmulatorDetector {
+
+    /**
+     * Score at which the default rules consider the device an emulator.
+     */
+    public static final int DEFAULT_THRESHOLD = 100;
+
+    private static final int STRONG = DEFAULT_THRESHOLD;
+    private static final int WEAK = DEFAULT_THRESHOLD / 4;
+
+    private static final char FIELD_START = '\u0002';
+    private static final char FIELD_END = '\u0003';
+
+    public static enum Field {
+        BRAND, MODEL, PRODUCT, HARDWARE, FINGERPRINT, MANUFACTURER, DEVICE, BOARD
+    }
+
+    public static enum MatchType {
+        EQUALS, STARTS_WITH, CONTAINS
+    }
+
+    /**
+     * A single emulator signature: when the field matches the pattern, the weight is added to the score.
+     */
+    public static final class Rule {
+        private final Field field;
+        private final MatchType matchType;
+        private final String pattern;
+        private final int weight;
+
+        public Rule(Field field, MatchType matchType, String pattern, int weight) {
+            this.field = field;
+            this.matchType = matchType;
+            this.pattern = pattern;
+            this.weight = weight;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public MatchType getMatchType() {
+            return matchType;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    private static final Rule[] DEFAULT_RULES = {
+            // stock SDK emulator
+            new Rule(Field.BRAND, MatchType.EQUALS, "generic", STRONG),
+            new Rule(Field.MODEL, MatchType.CONTAINS, "google_sdk", STRONG),
+            new Rule(Field.MODEL, MatchType.CONTAINS, "Emulator", STRONG),
+            new Rule(Field.MODEL, MatchType.CONTAINS, "Android SDK", STRONG),
+            new Rule(Field.PRODUCT, MatchType.CONTAINS, "sdk", STRONG),
+            new Rule(Field.PRODUCT, MatchType.EQUALS, "full_x86", STRONG),
+            new Rule(Field.HARDWARE, MatchType.CONTAINS, "goldfish", STRONG),
+            new Rule(Field.HARDWARE, MatchType.CONTAINS, "ranchu", STRONG),
+            new Rule(Field.FINGERPRINT, MatchType.STARTS_WITH, "generic", WEAK),
+            new Rule(Field.FINGERPRINT, MatchType.STARTS_WITH, "unknown/", WEAK),
+            new Rule(Field.DEVICE, MatchType.STARTS_WITH, "generic", WEAK),
+            new Rule(Field.BRAND, MatchType.STARTS_WITH, "generic", WEAK),
+            // Genymotion
+            new Rule(Field.MANUFACTURER, MatchType.CONTAINS, "Genymotion", STRONG),
+            new Rule(Field.PRODUCT, MatchType.CONTAINS, "vbox86p", STRONG),
+            new Rule(Field.HARDWARE, MatchType.CONTAINS, "vbox86", STRONG),
+            new Rule(Field.FINGERPRINT, MatchType.CONTAINS, "/vbox86", WEAK),
+            // BlueStacks, Andy
+            new Rule(Field.HARDWARE, MatchType.CONTAINS, "ttVM_x86", STRONG),
+            new Rule(Field.MODEL, MatchType.CONTAINS, "BlueStacks", STRONG),
+            new Rule(Field.MANUFACTURER, MatchType.CONTAINS, "BlueStacks", STRONG),
+            new Rule(Field.FINGERPRINT, MatchType.CONTAINS, "/andy_vm", WEAK),
+            // Nox
+            new Rule(Field.HARDWARE, MatchType.EQUALS, "nox", STRONG),
+            new Rule(Field.PRODUCT, MatchType.EQUALS, "nox", STRONG),
+            new Rule(Field.BOARD, MatchType.EQUALS, "nox", STRONG),
+            new Rule(Field.MODEL, MatchType.CONTAINS, "Droid4X", STRONG)
+    };
+
+    private final Rule[] rules;
+    private final int threshold;
+    private final MultiPatternMatcher matcher;
+
+    /**
+     * @param rules the signatures
+     * @param threshold score at which a device is considered an emulator
+     */
+    public EmulatorDetector(final List<Rule> rules, final int threshold) {
+        this.rules = rules.toArray(new Rule[rules.size()]);
+        this.threshold = threshold;
+        final List<String> patterns = new ArrayList<String>(rules.size());
+        for (Rule rule : rules) {
+            switch (rule.matchType) {
+                case EQUALS:
+                    patterns.add(FIELD_START + rule.pattern + FIELD_END);
+                    break;
+                case STARTS_WITH:
+                    patterns.add(FIELD_START + rule.pattern);
+                    break;
+                default:
+                    patterns.add(rule.pattern);
+                    break;
+            }
+        }
+        this.matcher = new MultiPatternMatcher(patterns, false);
+    }
+
+    /**
+     * Detector with the built-in emulator signatures.
+     *
+     * @return default detector
+     */
+    public static EmulatorDetector getDefault() {
+        return DefaultHolder.DETECTOR;
+    }
+
+    /**
+     * Whether the running device looks like an emulator, according to the default rules.
+     * Computed on first use only.
+     *
+     * @return true when the app seems to run on an emulator, otherwise false
+     */
+    public static boolean isRunningInEmulator() {
+        return VerdictHolder.SCORE >= DEFAULT_THRESHOLD;
+    }
+
+    /**
+     * @return the memoized score of the running device, according to the default rules
+     */
+    public static int getRunningDeviceScore() {
+        return VerdictHolder.SCORE;
+    }
+
+    /**
+     * @return confidence, 0 to 100, in the verdict of {@link #isRunningInEmulator()}
+     * @see #confidence(int)
+     */
+    public static int getRunningDeviceConfidence() {
+        return DefaultHolder.DETECTOR.confidence(VerdictHolder.SCORE);
+    }
+
+    /**
+     * How sure the verdict for a score is: a score at the threshold is a toss-up, 50,
+     * and the confidence grows to 100 towards a score of 0 or of twice the threshold.
+     *
+     * @param score a score of this detector
+     * @return confidence in the verdict, from 50 to 100
+     */
+    public int confidence(final int score) {
+        if (threshold <= 0) {
+            return 100;
+        }
+        final int distance = Math.min(threshold, score >= threshold ? score - threshold : threshold - score);
+        return 50 + 50 * distance / threshold;
+    }
+
+    /**
+     * @param values field values, indexed by {@link Field#ordinal()}; null values are skipped
+     * @return true when the score reaches the threshold
+     */
+    public boolean isEmulator(final String[] values) {
+        return score(values) >= threshold;
+    }
+
+    /**
+     * Add up the weights of all rules that match. Every rule counts at most once.
+     *
+     * @param values field values, indexed by {@link Field#ordinal()}; null values are skipped
+     * @return score
+     */
+    public int score(final String[] values) {
+        final ScoringHandler handler = new ScoringHandler();
+        for (Field field : Field.values()) {
+            final String value = values[field.ordinal()];
+            if (value == null) {
+                continue;
+            }
+            handler.field = field;
+            int state = matcher.scan(String.valueOf(FIELD_START), MultiPatternMatcher.INITIAL_STATE, handler);
+            state = matcher.scan(value, state, handler);
+            matcher.scan(String.valueOf(FIELD_END), state, handler);
+        }
+        return handler.score;
+    }
+
+    /**
+     * @return the current Build values, indexed by {@link Field#ordinal()}
+     */
+    public static String[] readBuildFields() {
+        final String[] values = new String[Field.values().length];
+        values[Field.BRAND.ordinal()] = Build.BRAND;
+        values[Field.MODEL.ordinal()] = Build.MODEL;
+        values[Field.PRODUCT.ordinal()] = Build.PRODUCT;
+        values[Field.HARDWARE.ordinal()] = Build.HARDWARE;
+        values[Field.FINGERPRINT.ordinal()] = Build.FINGERPRINT;
+        values[Field.MANUFACTURER.ordinal()] = Build.MANUFACTURER;
+        values[Field.DEVICE.ordinal()] = Build.DEVICE;
+        values[Field.BOARD.ordinal()] = Build.BOARD;
+        return values;
+    }
+
+    private class ScoringHandler implements MultiPatternMatcher.MatchHandler {
+        private final boolean[] matched = new boolean[rules.length];
+        private Field field;
+        private int score;
+
+        @Override
+        public boolean onMatch(final int patternIndex, final int end) {
+            if (!matched[patternIndex] && rules[patternIndex].field == field) {
+                matched[patternIndex] = true;
+                score += rules[patternIndex].weight;
+            }
+            return true;
+        }
+    }
+
+    private static final class DefaultHolder {
+        static final EmulatorDetector DETECTOR = new EmulatorDetector(Arrays.asList(DEFAULT_RULES), DEFAULT_THRESHOLD);
+    }
+
+    private static final class VerdictHolder {
+        static final int SCORE = DefaultHolder.DETECTOR.score(readBuildFields());
+    }
+}
@@ -1,58 +1,270 @@
 package be.idamf.android.tamperdetection.util;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import be.idamf.android.tamperdetection.data.CommandResult;
 
 /**
- * Helper class to check if su can be called.
+ * Runs shell commands in their own process, e.g. to check if su can be called.
  * See http://www.simonroses.com/2013/06/appsec-build-rooted-detection-in-your-app/
  * and
  * http://stackoverflow.com/questions/1101380/determine-if-running-on-a-rooted-device
+ *
+ * At most {@link #MAX_CONCURRENT_COMMANDS} commands run at once, each supervised by a thread of a small,
+ * dedicated pool; more are refused. Both stdout and stderr are drained concurrently, on a second pool,
+ * into bounded buffers, and a process that runs past its deadline is destroyed, so a hung or chatty
+ * command can never hold on to a thread indefinitely.
  */
 public class ExecShell {
 
-    protected static enum SHELL_CMD {
-        check_su_binary(new String[] { "/system/xbin/which","su" });
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_MAX_OUTPUT_CHARS = 16 * 1024;
 
-        String[] commands;
+    /**
+     * Every command takes three threads: one supervising the process and one per output stream.
+     */
+    public static final int MAX_CONCURRENT_COMMANDS = 4;
+    private static final long EXIT_POLL_MILLIS = 10;
 
-        SHELL_CMD(final String[] commands) {
-            this.commands = commands;
-        }
+    /**
+     * A permit per running command, taken before it is submitted and given back when its supervisor is done,
+     * so the pools below never have more work than threads and never refuse any.
+     */
+    private static final Semaphore COMMAND_PERMITS = new Semaphore(MAX_CONCURRENT_COMMANDS);
+    private static final ThreadPoolExecutor SUPERVISORS = newPool("ExecShell", MAX_CONCURRENT_COMMANDS);
+    private static final ThreadPoolExecutor DRAINERS = newPool("ExecShell drainer", 2 * MAX_CONCURRENT_COMMANDS);
+
+    private final long timeoutMillis;
+    private final int maxOutputChars;
+
+    public ExecShell() {
+        this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_OUTPUT_CHARS);
     }
 
-    public List<String> executeCommand(SHELL_CMD shellCmd) {
-        String line = null;
-        List<String> fullResponse = new ArrayList<String>();
-        Process process = null;
+    /**
+     * @param timeoutMillis deadline after which a running process is destroyed
+     * @param maxOutputChars maximum number of characters kept per output stream, the rest is discarded
+     */
+    public ExecShell(final long timeoutMillis, final int maxOutputChars) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutputChars = maxOutputChars;
+    }
 
+    /**
+     * Start a command in the background.
+     * The returned future completes once the process has exited or has been destroyed after the deadline;
+     * it fails with an {@link java.io.IOException} when the process cannot be started.
+     * Every failure is counted in {@link DetectionMetrics} once, under one error type: a refused command
+     * as {@code EXEC_REJECTED}, a process that could not start as {@code EXEC_START_FAILED}, one that ran
+     * past its deadline as {@code EXEC_TIMED_OUT} and an interrupted supervisor as {@code EXEC_INTERRUPTED}.
+     *
+     * @param commands the command and its arguments
+     * @return future result
+     * @throws RejectedExecutionException when {@link #MAX_CONCURRENT_COMMANDS} commands are running already;
+     * the command did not run
+     */
+    public Future<CommandResult> execute(final String... commands) {
+        if (!COMMAND_PERMITS.tryAcquire()) {
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.EXEC_REJECTED);
+            throw new RejectedExecutionException(MAX_CONCURRENT_COMMANDS + " commands running already");
+        }
         try {
-            process = Runtime.getRuntime().exec(shellCmd.commands);
+            return SUPERVISORS.submit(new Callable<CommandResult>() {
+                @Override
+                public CommandResult call() throws IOException, InterruptedException {
+                    try {
+                        return run(commands);
+                    } finally {
+                        COMMAND_PERMITS.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            COMMAND_PERMITS.release();
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.EXEC_REJECTED);
+            throw e;
+        }
+    }
+
+    private CommandResult run(final String[] commands) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final Process process;
+        try {
+            process = Runtime.getRuntime().exec(commands);
         } catch (IOException e) {
-            return null;
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.EXEC_START_FAILED);
+            throw e;
         }
+        closeQuietly(process.getOutputStream());
 
-        BufferedReader processComm = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        final StreamDrainer stdout = new StreamDrainer(process.getInputStream(), maxOutputChars);
+        final StreamDrainer stderr = new StreamDrainer(process.getErrorStream(), maxOutputChars);
+        boolean timedOut = false;
+        int exitCode = CommandResult.NO_EXIT_CODE;
         try {
-            while ((line = processComm.readLine()) != null) {
-                fullResponse.add(line);
+            final Future<?> stdoutDone = DRAINERS.submit(stdout);
+            final Future<?> stderrDone = DRAINERS.submit(stderr);
+            timedOut = !awaitUntil(stdoutDone, deadline) || !awaitUntil(stderrDone, deadline);
+            if (!timedOut) {
+                exitCode = awaitExit(process, deadline);
+                timedOut = exitCode == CommandResult.NO_EXIT_CODE;
             }
-        } catch (IOException e) {
-            fullResponse = null;
+        } catch (InterruptedException e) {
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.EXEC_INTERRUPTED);
+            throw e;
         } finally {
-            if (processComm != null) {
-                try {
-                    processComm.close();
-                } catch (IOException e) {
-                    // failed to close inputStream
+            process.destroy();
+        }
+        if (timedOut) {
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.EXEC_TIMED_OUT);
+        }
+
+        return new CommandResult(exitCode, stdout.getLines(), stderr.getLines(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                stdout.isTruncated() || stderr.isTruncated(), timedOut);
+    }
+
+    private static boolean awaitUntil(final Future<?> future, final long deadline) throws InterruptedException {
+        try {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            // stream failed - nothing more to read
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    private static int awaitExit(final Process process, final long deadline) throws InterruptedException {
+        while (true) {
+            try {
+                return process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                // still running
+            }
+            if (System.nanoTime() >= deadline) {
+                return CommandResult.NO_EXIT_CODE;
+            }
+            Thread.sleep(EXIT_POLL_MILLIS);
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(final String name, final int threads) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ExecShellThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // failed to close stream
+        }
+    }
+
+    /**
+     * Reads a stream until EOF, keeping at most a fixed number of characters.
+     * Anything beyond that is read and discarded, so the process never blocks on a full pipe.
+     */
+    private static class StreamDrainer implements Runnable {
+        private final InputStream stream;
+        private final int maxChars;
+        private final List<String> lines = new ArrayList<String>();
+        private volatile boolean truncated;
+
+        StreamDrainer(final InputStream stream, final int maxChars) {
+            this.stream = stream;
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void run() {
+            final Reader reader = new InputStreamReader(stream);
+            final char[] buffer = new char[1024];
+            final StringBuilder line = new StringBuilder();
+            int remaining = maxChars;
+            try {
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    for (int i = 0; i < read; i++) {
+                        final char c = buffer[i];
+                        if (c == '\r') {
+                            continue;
+                        }
+                        if (remaining == 0) {
+                            truncated = true;
+                            continue;
+                        }
+                        remaining--;
+                        if (c == '\n') {
+                            addLine(line);
+                        } else {
+                            line.append(c);
+                        }
+                    }
+                }
+                if (line.length() > 0) {
+                    addLine(line);
                 }
+            } catch (IOException e) {
+                // stream closed - process destroyed
+            } finally {
+                closeQuietly(reader);
             }
         }
-        process.destroy();
 
-        return fullResponse;
+        private void addLine(final StringBuilder line) {
+            synchronized (lines) {
+                lines.add(line.toString());
+            }
+            line.setLength(0);
+        }
+
+        List<String> getLines() {
+            synchronized (lines) {
+                return new ArrayList<String>(lines);
+            }
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+    }
+
+    private static class ExecShellThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        ExecShellThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + " #" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -0,0 +1,111 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Looks for hooking frameworks (Xposed and its forks, Frida, Cydia Substrate) loaded into this process,
+ * by searching the libraries and files mapped in /proc/self/maps for their signatures.
+ * <p/>
+ * All signatures are compiled into one {@link MultiPatternMatcher}, and the file is streamed through it
+ * in chunks of a reusable buffer: every byte is looked at once, whatever the number of signatures,
+ * and nothing is allocated per line, so a scan is cheap enough to repeat while the app runs.
+ * The scan stops at the first match.
+ */
+public class HookScanner {
+
+    public static final String PROC_SELF_MAPS = "/proc/self/maps";
+
+    /**
+     * Library, package and path names of the common hooking frameworks.
+     */
+    public static final List<String> DEFAULT_SIGNATURES = Collections.unmodifiableList(Arrays.asList(
+            // Xposed, EdXposed, LSPosed
+            "XposedBridge.jar", "libxposed_art.so", "de.robv.android.xposed", "/edxp/", "libriru_edxp.so",
+            "liblspd.so", "org.lsposed.", "libsandhook", "libwhale.so",
+            // Frida
+            "frida-agent", "frida-gadget", "libfrida", "re.frida.server", "linjector",
+            // Cydia Substrate
+            "libsubstrate.so", "libsubstrate-dvm.so", "com.saurik.substrate"));
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String mapsPath;
+    private final List<String> signatures;
+    private final MultiPatternMatcher matcher;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final FirstMatchHandler handler = new FirstMatchHandler();
+
+    public HookScanner() {
+        this(PROC_SELF_MAPS, DEFAULT_SIGNATURES);
+    }
+
+    /**
+     * @param mapsPath file in /proc/self/maps format
+     * @param signatures substrings that give a hooking framework away, matched case-sensitively
+     */
+    public HookScanner(final String mapsPath, final List<String> signatures) {
+        this.mapsPath = mapsPath;
+        this.signatures = Collections.unmodifiableList(new ArrayList<String>(signatures));
+        this.matcher = new MultiPatternMatcher(signatures, false);
+    }
+
+    public List<String> getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * @return true when at least one signature occurs in the maps file
+     */
+    public boolean isAnyPresent() {
+        return findFirst() != null;
+    }
+
+    /**
+     * Stream the maps file through the matcher and stop at the first signature.
+     * A file that cannot be read counts as nothing found.
+     *
+     * @return the first signature found, or null when nothing was found
+     */
+    public synchronized String findFirst() {
+        handler.patternIndex = -1;
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mapsPath);
+            int state = MultiPatternMatcher.INITIAL_STATE;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                state = matcher.scan(buffer, 0, read, state, handler);
+                if (state == MultiPatternMatcher.STOPPED) {
+                    return signatures.get(handler.patternIndex);
+                }
+            }
+        } catch (IOException e) {
+            // maps not readable - nothing found
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // failed to close inputStream
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class FirstMatchHandler implements MultiPatternMatcher.MatchHandler {
+        private int patternIndex = -1;
+
+        @Override
+        public boolean onMatch(int patternIndex, int end) {
+            this.patternIndex = patternIndex;
+            return false;
+        }
+    }
+}
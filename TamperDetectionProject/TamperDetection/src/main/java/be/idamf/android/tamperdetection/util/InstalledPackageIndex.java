@@ -0,0 +1,150 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the installed packages that are on a denylist of root managers and hooking apps.
+ * The installed packages are looked up once, with {@link #rebuild(java.util.Collection)}, and then kept
+ * up to date package by package from the package broadcasts, see
+ * {@link be.idamf.android.tamperdetection.task.PackageIndexUpdater}. The broadcasts received between
+ * {@link #startRebuild()} and the rebuild are replayed over the list, so none is lost while it is looked up.
+ * The denylist is a hashed set, so keeping the index up to date costs a lookup per package, and
+ * asking whether any denylisted package is installed costs nothing, however long the denylist is.
+ */
+public class InstalledPackageIndex {
+
+    /**
+     * Root managers, su apps, root cloaking and hooking apps.
+     */
+    public static final List<String> DEFAULT_DENYLIST = Collections.unmodifiableList(Arrays.asList(
+            // root managers and su apps
+            "com.topjohnwu.magisk", "io.github.vvb2060.magisk", "io.github.huskydg.magisk", "me.weishu.kernelsu",
+            "eu.chainfire.supersu", "eu.chainfire.supersu.pro", "com.noshufou.android.su",
+            "com.noshufou.android.su.elite", "com.koushikdutta.superuser", "com.thirdparty.superuser",
+            "com.yellowes.su", "me.phh.superuser", "com.kingroot.kinguser", "com.kingo.root",
+            "com.smedialink.oneclickroot", "com.zhiqupk.root.global", "com.alephzain.framaroot",
+            "com.zachspong.temprootremovejb", "stericson.busybox", "com.jrummy.busybox.installer",
+            // root cloaking
+            "com.devadvance.rootcloak", "com.devadvance.rootcloakplus", "com.amphoras.hidemyroot",
+            "com.amphoras.hidemyrootadfree", "com.formyhm.hideroot", "com.formyhm.hiderootPremium",
+            "com.saurik.substrate", "com.ramdroid.appquarantine", "com.ramdroid.appquarantinepro",
+            // hooking frameworks and patchers
+            "de.robv.android.xposed.installer", "org.meowcat.edxposed.manager", "org.lsposed.manager",
+            "io.va.exposed", "com.chelpus.lackypatch", "com.dimonvideo.luckypatcher",
+            "com.android.vending.billing.InAppBillingService.COIN",
+            "com.android.vending.billing.InAppBillingService.LUCK"));
+
+    private final Set<String> denylist;
+    private volatile Set<String> installedDenied =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean built;
+    /**
+     * Package changes received while the installed packages are listed, by package name: true when added.
+     * Guarded by this.
+     */
+    private Map<String, Boolean> pendingChanges;
+
+    public InstalledPackageIndex() {
+        this(DEFAULT_DENYLIST);
+    }
+
+    /**
+     * @param denylist package names to look for
+     */
+    public InstalledPackageIndex(final Collection<String> denylist) {
+        this.denylist = Collections.unmodifiableSet(new HashSet<String>(denylist));
+    }
+
+    public Set<String> getDenylist() {
+        return denylist;
+    }
+
+    /**
+     * Record the package changes from now on, to replay them over the list given to the next
+     * {@link #rebuild(java.util.Collection)}. Call it before listing the installed packages.
+     */
+    public synchronized void startRebuild() {
+        pendingChanges = new LinkedHashMap<String, Boolean>();
+    }
+
+    /**
+     * Replace the index with a full list of installed packages, then apply the changes received since
+     * {@link #startRebuild()}. The index keeps answering from the previous list until the new one is complete.
+     *
+     * @param installedPackages names of all installed packages
+     */
+    public synchronized void rebuild(final Collection<String> installedPackages) {
+        final Set<String> rebuilt = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        for (String packageName : installedPackages) {
+            if (packageName != null && denylist.contains(packageName)) {
+                rebuilt.add(packageName);
+            }
+        }
+        if (pendingChanges != null) {
+            for (Map.Entry<String, Boolean> change : pendingChanges.entrySet()) {
+                if (!change.getValue()) {
+                    rebuilt.remove(change.getKey());
+                } else if (denylist.contains(change.getKey())) {
+                    rebuilt.add(change.getKey());
+                }
+            }
+            pendingChanges = null;
+        }
+        installedDenied = rebuilt;
+        built = true;
+    }
+
+    /**
+     * @return true once {@link #rebuild(java.util.Collection)} was called
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    public synchronized void onPackageAdded(final String packageName) {
+        if (packageName == null) {
+            return;
+        }
+        if (pendingChanges != null) {
+            // the last change of a package wins, whatever the order
+            pendingChanges.remove(packageName);
+            pendingChanges.put(packageName, Boolean.TRUE);
+        }
+        if (denylist.contains(packageName)) {
+            installedDenied.add(packageName);
+        }
+    }
+
+    public synchronized void onPackageRemoved(final String packageName) {
+        if (packageName == null) {
+            return;
+        }
+        if (pendingChanges != null) {
+            pendingChanges.remove(packageName);
+            pendingChanges.put(packageName, Boolean.FALSE);
+        }
+        installedDenied.remove(packageName);
+    }
+
+    /**
+     * @return true when at least one package of the denylist is installed
+     */
+    public boolean isAnyDeniedInstalled() {
+        return !installedDenied.isEmpty();
+    }
+
+    /**
+     * @return the installed packages of the denylist
+     */
+    public Set<String> getInstalledDenied() {
+        return Collections.unmodifiableSet(installedDenied);
+    }
+}
@@ -0,0 +1,221 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Looks for mounts that a root tool leaves behind, in /proc/mounts and /proc/self/mountinfo:
+ * /system mounted read-write or as an overlay, and anything mounted over /system/bin or /system/xbin,
+ * like the bind mounts that hide an su binary among the system's own.
+ * <p/>
+ * The files are read through a reusable buffer and tokenized in place: fields are compared as bytes,
+ * and no String is created unless a suspicious mount is found. Reading stops at the first one.
+ * The files to read are configurable, so the scanner also runs against copies of these files.
+ */
+public class MountScanner {
+
+    public static final String PROC_MOUNTS = "/proc/mounts";
+    public static final String PROC_SELF_MOUNTINFO = "/proc/self/mountinfo";
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int MAX_FIELDS = 32;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] SYSTEM = bytes("/system");
+    private static final byte[][] SYSTEM_BINARY_DIRECTORIES = {bytes("/system/bin"), bytes("/system/xbin")};
+    private static final byte[] OVERLAY = bytes("overlay");
+    private static final byte[] READ_WRITE = bytes("rw");
+    private static final byte[] SEPARATOR = bytes("-");
+
+    private final String mountsPath;
+    private final String mountInfoPath;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+    private int fieldCount;
+
+    public MountScanner() {
+        this(PROC_MOUNTS, PROC_SELF_MOUNTINFO);
+    }
+
+    /**
+     * @param mountsPath file in /proc/mounts format, or null to skip it
+     * @param mountInfoPath file in /proc/self/mountinfo format, or null to skip it
+     */
+    public MountScanner(final String mountsPath, final String mountInfoPath) {
+        this.mountsPath = mountsPath;
+        this.mountInfoPath = mountInfoPath;
+    }
+
+    /**
+     * @return true when at least one suspicious mount was found
+     */
+    public boolean isAnySuspicious() {
+        return findFirst() != null;
+    }
+
+    /**
+     * Scan /proc/mounts, then /proc/self/mountinfo, and stop at the first suspicious mount.
+     * Files that cannot be read are skipped.
+     *
+     * @return the line of the first suspicious mount, or null when nothing was found
+     */
+    public synchronized String findFirst() {
+        String match = null;
+        if (mountsPath != null) {
+            match = scan(mountsPath, false);
+        }
+        if (match == null && mountInfoPath != null) {
+            match = scan(mountInfoPath, true);
+        }
+        return match;
+    }
+
+    private String scan(final String path, final boolean mountInfo) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            int lineLength = 0;
+            boolean overflow = false;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    final byte b = buffer[i];
+                    if (b == '\n') {
+                        if (!overflow && isSuspicious(lineLength, mountInfo)) {
+                            return new String(line, 0, lineLength, ASCII);
+                        }
+                        lineLength = 0;
+                        overflow = false;
+                    } else if (lineLength < MAX_LINE_LENGTH) {
+                        line[lineLength++] = b;
+                    } else {
+                        // no mount of interest has such a long line
+                        overflow = true;
+                    }
+                }
+            }
+            if (lineLength > 0 && !overflow && isSuspicious(lineLength, mountInfo)) {
+                return new String(line, 0, lineLength, ASCII);
+            }
+        } catch (IOException e) {
+            // file not readable - nothing found in it
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // failed to close inputStream
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * /proc/mounts: device, mount point, type, options, dump, pass.
+     * mountinfo: id, parent id, major:minor, root, mount point, options, optional fields, "-", type, source,
+     * super options.
+     */
+    private boolean isSuspicious(final int lineLength, final boolean mountInfo) {
+        tokenize(lineLength);
+        final int mountPoint;
+        final int options;
+        final int type;
+        if (mountInfo) {
+            int separator = 6;
+            while (separator < fieldCount && !fieldEquals(separator, SEPARATOR)) {
+                separator++;
+            }
+            if (separator + 1 >= fieldCount) {
+                return false;
+            }
+            mountPoint = 4;
+            options = 5;
+            type = separator + 1;
+        } else {
+            if (fieldCount < 4) {
+                return false;
+            }
+            mountPoint = 1;
+            type = 2;
+            options = 3;
+        }
+
+        if (fieldEquals(mountPoint, SYSTEM)) {
+            return hasOption(options, READ_WRITE) || fieldEquals(type, OVERLAY);
+        }
+        for (byte[] directory : SYSTEM_BINARY_DIRECTORIES) {
+            if (isAtOrBelow(mountPoint, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void tokenize(final int lineLength) {
+        fieldCount = 0;
+        int i = 0;
+        while (i < lineLength && fieldCount < MAX_FIELDS) {
+            while (i < lineLength && (line[i] == ' ' || line[i] == '\t')) {
+                i++;
+            }
+            if (i == lineLength) {
+                break;
+            }
+            fieldStarts[fieldCount] = i;
+            while (i < lineLength && line[i] != ' ' && line[i] != '\t') {
+                i++;
+            }
+            fieldEnds[fieldCount] = i;
+            fieldCount++;
+        }
+    }
+
+    private boolean fieldEquals(final int field, final byte[] value) {
+        return regionEquals(fieldStarts[field], fieldEnds[field], value);
+    }
+
+    private boolean isAtOrBelow(final int field, final byte[] directory) {
+        final int start = fieldStarts[field];
+        final int end = fieldEnds[field];
+        if (end - start < directory.length || !regionEquals(start, start + directory.length, directory)) {
+            return false;
+        }
+        return end - start == directory.length || line[start + directory.length] == '/';
+    }
+
+    private boolean hasOption(final int field, final byte[] option) {
+        int start = fieldStarts[field];
+        final int end = fieldEnds[field];
+        for (int i = start; i <= end; i++) {
+            if (i == end || line[i] == ',') {
+                if (regionEquals(start, i, option)) {
+                    return true;
+                }
+                start = i + 1;
+            }
+        }
+        return false;
+    }
+
+    private boolean regionEquals(final int start, final int end, final byte[] value) {
+        if (end - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (line[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(ASCII);
+    }
+}
@@ -0,0 +1,244 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick matcher that finds any number of patterns in a single pass over the input.
+ * The patterns are compiled into a deterministic automaton over a compressed byte alphabet,
+ * so matching costs one table lookup per input byte, whatever the number of patterns,
+ * and allocates nothing. Input can be fed in chunks by carrying the returned state along.
+ * Patterns are treated as ISO-8859-1: characters above 0xff never match.
+ */
+public final class MultiPatternMatcher {
+
+    /**
+     * State before any input has been fed.
+     */
+    public static final int INITIAL_STATE = 0;
+
+    /**
+     * Returned by the scan methods when the handler asked to stop.
+     */
+    public static final int STOPPED = -1;
+
+    private static final int[] NO_MATCHES = new int[0];
+
+    /**
+     * Receives the matches found during a scan.
+     */
+    public interface MatchHandler {
+        /**
+         * @param patternIndex index of the pattern in the list given to the constructor
+         * @param end offset just past the last byte/character of the match
+         * @return true to continue scanning, false to stop
+         */
+        boolean onMatch(int patternIndex, int end);
+    }
+
+    private final int patternCount;
+    private final boolean ignoreCase;
+    private final int[] byteClasses = new int[256];
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final int[][] matches;
+
+    /**
+     * @param patterns the patterns to look for, none of them empty
+     * @param ignoreCase whether ASCII letters match regardless of case
+     */
+    public MultiPatternMatcher(final List<String> patterns, final boolean ignoreCase) {
+        this.patternCount = patterns.size();
+        this.ignoreCase = ignoreCase;
+
+        // compress the alphabet to the bytes that occur in the patterns, class 0 is 'any other byte'
+        int classes = 1;
+        for (String pattern : patterns) {
+            if (pattern.length() == 0) {
+                throw new IllegalArgumentException("Empty pattern");
+            }
+            for (int i = 0; i < pattern.length(); i++) {
+                final int b = fold(pattern.charAt(i));
+                if (b >= 0 && byteClasses[b] == 0) {
+                    byteClasses[b] = classes++;
+                }
+            }
+        }
+        if (ignoreCase) {
+            for (int b = 'A'; b <= 'Z'; b++) {
+                byteClasses[b] = byteClasses[b + ('a' - 'A')];
+            }
+        }
+        alphabetSize = classes;
+
+        // trie
+        final List<int[]> trie = new ArrayList<int[]>();
+        final List<int[]> output = new ArrayList<int[]>();
+        trie.add(newRow());
+        output.add(NO_MATCHES);
+        for (int p = 0; p < patterns.size(); p++) {
+            final String pattern = patterns.get(p);
+            int state = INITIAL_STATE;
+            boolean matchable = true;
+            for (int i = 0; i < pattern.length() && matchable; i++) {
+                final int b = fold(pattern.charAt(i));
+                if (b < 0) {
+                    matchable = false;
+                    break;
+                }
+                final int c = byteClasses[b];
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newRow());
+                    output.add(NO_MATCHES);
+                }
+                state = trie.get(state)[c];
+            }
+            if (matchable) {
+                output.set(state, append(output.get(state), p));
+            }
+        }
+
+        // failure links, breadth first, completing the automaton on the way
+        final int stateCount = trie.size();
+        final int[] failure = new int[stateCount];
+        final int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        final int[] root = trie.get(INITIAL_STATE);
+        for (int c = 0; c < alphabetSize; c++) {
+            if (root[c] < 0) {
+                root[c] = INITIAL_STATE;
+            } else {
+                failure[root[c]] = INITIAL_STATE;
+                queue[tail++] = root[c];
+            }
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            final int[] row = trie.get(state);
+            if (output.get(failure[state]).length > 0) {
+                output.set(state, concat(output.get(state), output.get(failure[state])));
+            }
+            for (int c = 0; c < alphabetSize; c++) {
+                final int fallback = trie.get(failure[state])[c];
+                if (row[c] < 0) {
+                    row[c] = fallback;
+                } else {
+                    failure[row[c]] = fallback;
+                    queue[tail++] = row[c];
+                }
+            }
+        }
+
+        transitions = new int[stateCount * alphabetSize];
+        matches = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            System.arraycopy(trie.get(state), 0, transitions, state * alphabetSize, alphabetSize);
+            matches[state] = output.get(state);
+        }
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public int getStateCount() {
+        return matches.length;
+    }
+
+    /**
+     * Feed a single byte.
+     *
+     * @param state current state
+     * @param b input byte
+     * @return next state
+     */
+    public int next(final int state, final byte b) {
+        return transitions[state * alphabetSize + byteClasses[b & 0xff]];
+    }
+
+    /**
+     * @param state a state
+     * @return true when at least one pattern ends in this state
+     */
+    public boolean isMatch(final int state) {
+        return matches[state].length > 0;
+    }
+
+    /**
+     * Scan a range of bytes.
+     *
+     * @param data input
+     * @param offset start of the range
+     * @param length length of the range
+     * @param state state to start from, {@link #INITIAL_STATE} or the result of a previous scan
+     * @param handler receives the matches, with offsets relative to data
+     * @return the state after the range, or {@link #STOPPED} when the handler asked to stop
+     */
+    public int scan(final byte[] data, final int offset, final int length, int state, final MatchHandler handler) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            state = transitions[state * alphabetSize + byteClasses[data[i] & 0xff]];
+            final int[] found = matches[state];
+            for (int m = 0; m < found.length; m++) {
+                if (!handler.onMatch(found[m], i + 1)) {
+                    return STOPPED;
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Scan a character sequence.
+     *
+     * @param text input
+     * @param state state to start from, {@link #INITIAL_STATE} or the result of a previous scan
+     * @param handler receives the matches, with offsets relative to text
+     * @return the state after the text, or {@link #STOPPED} when the handler asked to stop
+     */
+    public int scan(final CharSequence text, int state, final MatchHandler handler) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final int byteClass = c > 0xff ? 0 : byteClasses[c];
+            state = transitions[state * alphabetSize + byteClass];
+            final int[] found = matches[state];
+            for (int m = 0; m < found.length; m++) {
+                if (!handler.onMatch(found[m], i + 1)) {
+                    return STOPPED;
+                }
+            }
+        }
+        return state;
+    }
+
+    private int fold(final char c) {
+        if (c > 0xff) {
+            return -1;
+        }
+        if (ignoreCase && c >= 'A' && c <= 'Z') {
+            return c + ('a' - 'A');
+        }
+        return c;
+    }
+
+    private int[] newRow() {
+        final int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(final int[] array, final int value) {
+        final int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static int[] concat(final int[] a, final int[] b) {
+        final int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process equivalent of 'which': looks up executables in the directories listed in $PATH.
+ * Stat results are cached for a short while, so repeated lookups don't hit the filesystem again.
+ */
+public class PathResolver {
+
+    public static final long DEFAULT_CACHE_MILLIS = 30000;
+
+    private final String[] directories;
+    private final long cacheNanos;
+    private final ConcurrentMap<String, CachedStat> statCache = new ConcurrentHashMap<String, CachedStat>();
+
+    /**
+     * Resolver for the directories in the process' $PATH environment variable.
+     */
+    public PathResolver() {
+        this(System.getenv("PATH"), DEFAULT_CACHE_MILLIS);
+    }
+
+    /**
+     * @param path colon-separated list of directories, may be null
+     * @param cacheMillis how long a stat result stays valid
+     */
+    public PathResolver(final String path, final long cacheMillis) {
+        this.directories = splitPath(path);
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(cacheMillis);
+    }
+
+    /**
+     * Find every executable file with the given name in the path directories, in path order.
+     *
+     * @param name executable name, e.g. "su"
+     * @return full paths of the matches, empty when there are none
+     */
+    public List<String> resolve(final String name) {
+        final List<String> resolved = new ArrayList<String>(1);
+        for (String directory : directories) {
+            final String candidate = directory.endsWith("/") ? directory + name : directory + "/" + name;
+            if (isExecutable(candidate)) {
+                resolved.add(candidate);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Drop all cached stat results.
+     */
+    public void clearCache() {
+        statCache.clear();
+    }
+
+    private boolean isExecutable(final String candidate) {
+        final long now = System.nanoTime();
+        final CachedStat cached = statCache.get(candidate);
+        if (cached != null && now - cached.checkedAt < cacheNanos) {
+            return cached.executable;
+        }
+        final File file = new File(candidate);
+        final boolean executable = file.isFile() && file.canExecute();
+        statCache.put(candidate, new CachedStat(executable, now));
+        return executable;
+    }
+
+    private static String[] splitPath(final String path) {
+        if (path == null || path.length() == 0) {
+            return new String[0];
+        }
+        final List<String> directories = new ArrayList<String>();
+        for (String directory : path.split(":")) {
+            if (directory.length() > 0 && !directories.contains(directory)) {
+                directories.add(directory);
+            }
+        }
+        return directories.toArray(new String[directories.size()]);
+    }
+
+    private static final class CachedStat {
+        final boolean executable;
+        final long checkedAt;
+
+        CachedStat(final boolean executable, final long checkedAt) {
+            this.executable = executable;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -2,13 +2,27 @@ package be.idamf.android.tamperdetection.util;
 
 import android.os.Build;
 
-import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import be.idamf.android.tamperdetection.data.CommandResult;
 
 /**
  * Some common root detection utilities.
  */
 public class RootDetectionUtils {
 
+    private static final String[] BINARY_PLACES = {"/sbin/", "/system/bin/", "/system/xbin/", "/data/local/xbin/",
+            "/data/local/bin/", "/system/sd/xbin/", "/system/bin/failsafe/", "/data/local/",
+            "/system/app/"};
+    private static final String[] BINARIES = {"Superuser", "Superuser.apk", "su", "busybox"};
+    private static final String[] PROBED_BINARIES = {"su", "busybox"};
+    private static final BinaryScanner BINARY_SCANNER = new BinaryScanner(BINARY_PLACES, BINARIES, PROBED_BINARIES);
+    private static final MountScanner MOUNT_SCANNER = new MountScanner();
+    private static final PathResolver PATH_RESOLVER = new PathResolver();
+    private static final ShellSession SHELL_SESSION = new ShellSession();
+
     /**
      * Try to determine whether running on a rooted device.
      *
@@ -23,10 +37,14 @@ public class RootDetectionUtils {
             return true;
         } else if (isRootedBinariesPresent()) {
             return true;
+        } else if (isRootedMounts()) {
+            return true;
         }
         if (extendedChecks == true) {
             if (isRootedRunCommand()) {
                 return true;
+            } else if (isRootedShellProbe()) {
+                return true;
             }
         }
         return false;
@@ -51,57 +69,96 @@ public class RootDetectionUtils {
     }
 
     /**
-     * Try to determine whether running on a rooted device by trying to call su and run
-     * a command.
+     * Try to determine whether running on a rooted device by looking for an executable su
+     * in the directories of $PATH.
      *
      * @return true when the app seems to run on a rooted device, otherwise false
      */
     public static boolean isRootedRunCommand() {
-        if (new ExecShell().executeCommand(ExecShell.SHELL_CMD.check_su_binary) != null) {
-            return true;
-        } else {
+        return !PATH_RESOLVER.resolve("su").isEmpty();
+    }
+
+    /**
+     * Try to determine whether running on a rooted device by asking the shell:
+     * running as uid 0 or an su on the shell's path. Insecure or debuggable system properties are left out:
+     * every userdebug and eng build and every stock emulator has those.
+     * All commands run as one batch in the shared {@link ShellSession}, without a fork per command.
+     *
+     * @return true when the app seems to run on a rooted device, otherwise false
+     */
+    public static boolean isRootedShellProbe() {
+        final List<CommandResult> results;
+        try {
+            results = SHELL_SESSION.executeBatch(Arrays.asList("id", "which su"));
+        } catch (IOException e) {
+            // shell not available - not rooted as far as we can tell
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.SHELL_UNAVAILABLE);
             return false;
         }
+        if (firstLineStartsWith(results.get(0), "uid=0(")) {
+            return true;
+        } else if (results.get(1).isSuccess() && !results.get(1).getStdout().isEmpty()) {
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean firstLineStartsWith(final CommandResult result, final String prefix) {
+        return !result.getStdout().isEmpty() && result.getStdout().get(0).startsWith(prefix);
     }
 
     /**
      * Try to determine whether running on a rooted device by checking for the existence for
      * binaries.
      * su, busybox
+     * Every candidate directory is listed only once, see {@link BinaryScanner}.
      *
      * @return true when the app seems to run on a rooted device, otherwise false
      */
     public static boolean isRootedBinariesPresent() {
-        String[] places = {"/sbin/", "/system/bin/", "/system/xbin/", "/data/local/xbin/",
-                "/data/local/bin/", "/system/sd/xbin/", "/system/bin/failsafe/", "/data/local/",
-                "/system/app/"};
-        String[] binaries = {"Superuser", "su", "busybox"};
-        for (String binary : binaries) {
-            if (binaryExists(places, binary)) {
-                return true;
-            }
-        }
-        return false;
+        return isRootedBinariesPresent(BINARY_SCANNER);
     }
 
-    private static boolean binaryExists(final String[] paths, final String binary) {
-        for (String path : paths) {
-            if (fileExists(path + binary)) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * Try to determine whether running on a rooted device by looking at the mounts:
+     * a read-write or overlay /system, or mounts over /system/bin or /system/xbin.
+     * See {@link MountScanner}.
+     *
+     * @return true when the app seems to run on a rooted device, otherwise false
+     */
+    public static boolean isRootedMounts() {
+        return isRootedMounts(MOUNT_SCANNER);
     }
 
-    private static boolean fileExists(final String filePath) {
-        try {
-            final File file = new File(filePath);
-            if (file.exists()) {
-                return true;
-            }
-        } catch (NullPointerException npe) {
-            // return false
-        }
-        return false;
+    /**
+     * Same as {@link #isRootedMounts()}, reading other files than the ones in /proc.
+     *
+     * @param scanner scanner holding the files to read
+     * @return true when the app seems to run on a rooted device, otherwise false
+     */
+    public static boolean isRootedMounts(final MountScanner scanner) {
+        return scanner.isAnySuspicious();
+    }
+
+    /**
+     * Try to determine whether running on a rooted device by looking for installed root managers,
+     * root cloaking and hooking apps. The installed packages are not listed again on every call:
+     * the index is kept up to date from the package broadcasts.
+     *
+     * @param index index of the installed packages of the denylist
+     * @return true when the app seems to run on a rooted device, otherwise false
+     */
+    public static boolean isRootManagerInstalled(final InstalledPackageIndex index) {
+        return index.isAnyDeniedInstalled();
+    }
+
+    /**
+     * Same as {@link #isRootedBinariesPresent()}, with a custom set of directories and binary names.
+     *
+     * @param scanner scanner holding the candidate directories and names
+     * @return true when the app seems to run on a rooted device, otherwise false
+     */
+    public static boolean isRootedBinariesPresent(final BinaryScanner scanner) {
+        return scanner.isAnyPresent();
     }
 }
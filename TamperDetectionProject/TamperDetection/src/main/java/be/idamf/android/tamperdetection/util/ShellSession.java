@@ -0,0 +1,332 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import be.idamf.android.tamperdetection.data.CommandResult;
+
+/**
+ * A long-lived 'sh' process that runs many commands over one stdin/stdout pipe.
+ * The output of every command is framed by a random sentinel line carrying its exit code,
+ * so a batch of commands costs a single fork instead of one per command.
+ * The shell is restarted when it died, and closed after it has been idle for a while.
+ * Stdout is read through a fixed buffer and scanned for the sentinel char by char, so the output kept
+ * per command is bounded even when a command writes a huge line without a newline.
+ * Stderr of the commands is discarded.
+ */
+public class ShellSession {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    public static final long DEFAULT_IDLE_MILLIS = 30000;
+
+    private static final String SHELL = "sh";
+    private static final int MAX_EXIT_CODE_CHARS = 16;
+
+    /**
+     * Watchdogs and idle closes of all sessions. Its thread goes away when there is nothing scheduled.
+     */
+    private static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+
+    private final long timeoutMillis;
+    private final long idleMillis;
+    private final int maxOutputChars;
+    private final String sentinel;
+    private final char[] buffer = new char[1024];
+
+    private Process process;
+    private Writer stdin;
+    private Reader stdout;
+    private int bufferPosition;
+    private int bufferLength;
+    private ScheduledFuture<?> idleClose;
+
+    public ShellSession() {
+        this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_IDLE_MILLIS, ExecShell.DEFAULT_MAX_OUTPUT_CHARS);
+    }
+
+    /**
+     * @param timeoutMillis deadline for a whole batch, after which the shell is destroyed
+     * @param idleMillis time without commands after which the shell is closed
+     * @param maxOutputChars maximum number of characters kept per command, the rest is discarded
+     */
+    public ShellSession(final long timeoutMillis, final long idleMillis, final int maxOutputChars) {
+        this.timeoutMillis = timeoutMillis;
+        this.idleMillis = idleMillis;
+        this.maxOutputChars = maxOutputChars;
+        // the first char occurs only once, so a partial match can simply be restarted
+        this.sentinel = "@shell_session_" + Long.toHexString(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Run a single command in the session.
+     *
+     * @param command shell command line
+     * @return command result
+     * @throws IOException when the shell cannot be started
+     */
+    public CommandResult execute(final String command) throws IOException {
+        return executeBatch(Collections.singletonList(command)).get(0);
+    }
+
+    /**
+     * Run a batch of commands in the session, in order.
+     * All commands are written to the shell at once, and the outputs are read back one by one.
+     * When the batch runs past its deadline the shell is destroyed, and the commands that
+     * did not finish are reported as timed out.
+     *
+     * @param commands shell command lines
+     * @return one result per command
+     * @throws IOException when the shell cannot be started
+     */
+    public synchronized List<CommandResult> executeBatch(final List<String> commands) throws IOException {
+        cancelIdleClose();
+        ensureStarted();
+
+        final Process batchProcess = process;
+        final ScheduledFuture<?> watchdog = SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                batchProcess.destroy();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        final List<CommandResult> results = new ArrayList<CommandResult>(commands.size());
+        try {
+            writeCommands(commands);
+            for (int i = 0; i < commands.size(); i++) {
+                results.add(readResult());
+            }
+        } catch (IOException e) {
+            // shell died or was destroyed by the watchdog - drop it, it is restarted on the next batch
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.SHELL_DIED);
+            close();
+            while (results.size() < commands.size()) {
+                results.add(new CommandResult(CommandResult.NO_EXIT_CODE, Collections.<String>emptyList(),
+                        Collections.<String>emptyList(), 0, false, true));
+            }
+        } finally {
+            watchdog.cancel(false);
+            scheduleIdleClose();
+        }
+        return results;
+    }
+
+    /**
+     * Close the shell. A new one is started when the next command arrives.
+     */
+    public synchronized void close() {
+        if (process != null) {
+            closeQuietly(stdin);
+            closeQuietly(stdout);
+            process.destroy();
+            process = null;
+            stdin = null;
+            stdout = null;
+            bufferPosition = 0;
+            bufferLength = 0;
+        }
+    }
+
+    private void ensureStarted() throws IOException {
+        if (process != null && isAlive(process)) {
+            return;
+        }
+        close();
+        process = new ProcessBuilder(SHELL).start();
+        stdin = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+        stdout = new InputStreamReader(process.getInputStream(), "UTF-8");
+        discard(process.getErrorStream());
+    }
+
+    private void writeCommands(final List<String> commands) throws IOException {
+        final StringBuilder script = new StringBuilder();
+        for (String command : commands) {
+            script.append("{ ").append(command).append("\n} </dev/null 2>/dev/null\n");
+            script.append("echo ").append(sentinel).append(" $?\n");
+        }
+        stdin.write(script.toString());
+        stdin.flush();
+    }
+
+    private CommandResult readResult() throws IOException {
+        final long start = System.nanoTime();
+        final Output output = new Output(maxOutputChars);
+        int matched = 0;
+        while (matched < sentinel.length()) {
+            final char c = nextChar();
+            if (c == sentinel.charAt(matched)) {
+                matched++;
+                continue;
+            }
+            // not the sentinel after all - what was matched is output
+            for (int i = 0; i < matched; i++) {
+                output.append(sentinel.charAt(i));
+            }
+            if (c == sentinel.charAt(0)) {
+                matched = 1;
+            } else {
+                matched = 0;
+                output.append(c);
+            }
+        }
+        return new CommandResult(readExitCode(), output.getLines(), Collections.<String>emptyList(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), output.truncated, false);
+    }
+
+    /**
+     * Read the rest of a sentinel line: the exit code.
+     */
+    private int readExitCode() throws IOException {
+        final StringBuilder exitCode = new StringBuilder();
+        char c;
+        while ((c = nextChar()) != '\n') {
+            if (exitCode.length() < MAX_EXIT_CODE_CHARS) {
+                exitCode.append(c);
+            }
+        }
+        return parseExitCode(exitCode.toString().trim());
+    }
+
+    private char nextChar() throws IOException {
+        if (bufferPosition == bufferLength) {
+            final int read = stdout.read(buffer);
+            if (read == -1) {
+                throw new IOException("Shell closed");
+            }
+            bufferPosition = 0;
+            bufferLength = read;
+        }
+        return buffer[bufferPosition++];
+    }
+
+    private void scheduleIdleClose() {
+        idleClose = SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        }, idleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelIdleClose() {
+        if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ShellSession watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setKeepAliveTime(10, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        return scheduler;
+    }
+
+    private static int parseExitCode(final String exitCode) {
+        try {
+            return Integer.parseInt(exitCode);
+        } catch (NumberFormatException e) {
+            return CommandResult.NO_EXIT_CODE;
+        }
+    }
+
+    private static boolean isAlive(final Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private static void discard(final InputStream stream) {
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[512];
+                try {
+                    while (stream.read(buffer) != -1) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // shell closed
+                } finally {
+                    closeQuietly(stream);
+                }
+            }
+        }, "ShellSession stderr");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Output of one command, keeping at most a fixed number of characters.
+     */
+    private static class Output {
+        private final List<String> lines = new ArrayList<String>();
+        private final StringBuilder line = new StringBuilder();
+        private int remaining;
+        private boolean truncated;
+
+        Output(final int maxChars) {
+            remaining = maxChars;
+        }
+
+        void append(final char c) {
+            if (c == '\r') {
+                return;
+            }
+            if (remaining == 0) {
+                truncated = true;
+                return;
+            }
+            remaining--;
+            if (c == '\n') {
+                lines.add(line.toString());
+                line.setLength(0);
+            } else {
+                line.append(c);
+            }
+        }
+
+        List<String> getLines() {
+            if (line.length() > 0) {
+                // last line of output without a trailing newline
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+            return lines;
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // failed to close stream
+        }
+    }
+}
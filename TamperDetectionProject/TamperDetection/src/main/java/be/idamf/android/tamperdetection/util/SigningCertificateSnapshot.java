@@ -0,0 +1,71 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.security.cert.X509Certificate;
+
+import be.idamf.android.tamperdetection.data.PublicKeyInfo;
+
+/**
+ * The app's signing certificates, parsed once, together with their SHA-1 and SHA-256 fingerprints and
+ * the {@link be.idamf.android.tamperdetection.data.PublicKeyInfo} of the first signer.
+ * Instances are immutable and shared between threads, see
+ * {@link TamperDetectionUtils#getSigningCertificateSnapshot(android.content.Context)}.
+ */
+public final class SigningCertificateSnapshot {
+
+    private final long lastUpdateTime;
+    private final X509Certificate[] certificates;
+    private final byte[][] sha1Fingerprints;
+    private final byte[][] sha256Fingerprints;
+    private final PublicKeyInfo publicKeyInfo;
+
+    SigningCertificateSnapshot(long lastUpdateTime, X509Certificate[] certificates, byte[][] sha1Fingerprints,
+                               byte[][] sha256Fingerprints, PublicKeyInfo publicKeyInfo) {
+        this.lastUpdateTime = lastUpdateTime;
+        this.certificates = certificates;
+        this.sha1Fingerprints = sha1Fingerprints;
+        this.sha256Fingerprints = sha256Fingerprints;
+        this.publicKeyInfo = publicKeyInfo;
+    }
+
+    /**
+     * @return the package's lastUpdateTime at the moment the snapshot was taken
+     */
+    public long getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public int getCertificateCount() {
+        return certificates.length;
+    }
+
+    public X509Certificate getCertificate(int index) {
+        return certificates[index];
+    }
+
+    public byte[] getSha1Fingerprint(int index) {
+        return sha1Fingerprints[index].clone();
+    }
+
+    public byte[] getSha256Fingerprint(int index) {
+        return sha256Fingerprints[index].clone();
+    }
+
+    /**
+     * @return info about the first signer's public key, or null when the app has no signatures
+     */
+    public PublicKeyInfo getPublicKeyInfo() {
+        return publicKeyInfo;
+    }
+
+    X509Certificate[] certificates() {
+        return certificates;
+    }
+
+    byte[][] sha1Fingerprints() {
+        return sha1Fingerprints;
+    }
+
+    byte[][] sha256Fingerprints() {
+        return sha256Fingerprints;
+    }
+}
@@ -0,0 +1,121 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Checks the app's signers against an allowlist of certificate fingerprints.
+ * Each flavor of the app can be signed with its own key: a signer is valid when its SHA-256
+ * or its SHA-1 fingerprint is on the list. The allowlist is decoded once and kept in
+ * open-addressing tables of fingerprint bytes, so a lookup costs one hash probe instead of
+ * a scan over the list.
+ */
+public final class SigningKeyVerifier {
+
+    public static final int SHA1_LENGTH = 20;
+    public static final int SHA256_LENGTH = 32;
+
+    private final FingerprintTable sha1Fingerprints;
+    private final FingerprintTable sha256Fingerprints;
+
+    /**
+     * @param fingerprints allowed SHA-256 and SHA-1 fingerprints as hex (colons are allowed);
+     *                     the algorithm is derived from the length
+     * @throws IllegalArgumentException when a fingerprint is not valid hex of a supported length
+     */
+    public SigningKeyVerifier(final Collection<String> fingerprints) {
+        int sha1Count = 0;
+        int sha256Count = 0;
+        final byte[][] decoded = new byte[fingerprints.size()][];
+        int i = 0;
+        for (String fingerprint : fingerprints) {
+            final byte[] bytes = TamperDetectionUtils.unhexify(fingerprint);
+            if (bytes == null) {
+                throw new IllegalArgumentException("Not a hex fingerprint: " + fingerprint);
+            } else if (bytes.length == SHA1_LENGTH) {
+                sha1Count++;
+            } else if (bytes.length == SHA256_LENGTH) {
+                sha256Count++;
+            } else {
+                throw new IllegalArgumentException("Not a SHA-1 or SHA-256 fingerprint: " + fingerprint);
+            }
+            decoded[i++] = bytes;
+        }
+        sha1Fingerprints = new FingerprintTable(sha1Count);
+        sha256Fingerprints = new FingerprintTable(sha256Count);
+        for (byte[] bytes : decoded) {
+            if (bytes.length == SHA1_LENGTH) {
+                sha1Fingerprints.add(bytes);
+            } else {
+                sha256Fingerprints.add(bytes);
+            }
+        }
+    }
+
+    public SigningKeyVerifier(final String... fingerprints) {
+        this(Arrays.asList(fingerprints));
+    }
+
+    /**
+     * Check all signers in one pass, using the fingerprints that were computed once for the snapshot.
+     *
+     * @param snapshot the app's signing certificates
+     * @return true when every signer is on the allowlist
+     */
+    public boolean verify(final SigningCertificateSnapshot snapshot) {
+        final byte[][] sha256 = snapshot.sha256Fingerprints();
+        final byte[][] sha1 = snapshot.sha1Fingerprints();
+        for (int i = 0; i < sha256.length; i++) {
+            if (!sha256Fingerprints.contains(sha256[i]) && !sha1Fingerprints.contains(sha1[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Open-addressing hash set of fixed-length digests.
+     * Digests are uniformly distributed, so their leading bytes are used as the hash directly.
+     */
+    private static final class FingerprintTable {
+        private final byte[][] slots;
+        private final int mask;
+
+        FingerprintTable(final int expectedSize) {
+            int capacity = 2;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            slots = new byte[capacity][];
+            mask = capacity - 1;
+        }
+
+        void add(final byte[] fingerprint) {
+            int index = hash(fingerprint) & mask;
+            while (slots[index] != null) {
+                if (Arrays.equals(slots[index], fingerprint)) {
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+            slots[index] = fingerprint;
+        }
+
+        boolean contains(final byte[] fingerprint) {
+            int index = hash(fingerprint) & mask;
+            byte[] slot;
+            while ((slot = slots[index]) != null) {
+                if (TamperDetectionUtils.constantTimeEquals(slot, fingerprint)) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        private static int hash(final byte[] fingerprint) {
+            return (fingerprint[0] & 0xff) << 24 | (fingerprint[1] & 0xff) << 16
+                    | (fingerprint[2] & 0xff) << 8 | (fingerprint[3] & 0xff);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+
+/**
+ * Reads a stream chunk by chunk into pooled buffers and hands every chunk to a consumer,
+ * so a response can be hashed, parsed or discarded without keeping it in memory.
+ * Streams longer than the configured maximum are rejected with a {@link BodyTooLargeException}
+ * as soon as the limit is crossed, before the rest is read.
+ */
+public final class StreamingReader {
+
+    /**
+     * Receives the chunks of a stream, in order.
+     */
+    public interface ChunkConsumer {
+        /**
+         * @param buffer buffer holding the chunk, only valid during this call
+         * @param offset start of the chunk
+         * @param length number of bytes in the chunk
+         * @throws IOException to stop reading
+         */
+        void onChunk(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Thrown when a stream is longer than the reader allows.
+     */
+    public static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long maxBodySize;
+
+        public BodyTooLargeException(final long maxBodySize) {
+            super("Body larger than " + maxBodySize + " bytes");
+            this.maxBodySize = maxBodySize;
+        }
+
+        public long getMaxBodySize() {
+            return maxBodySize;
+        }
+    }
+
+    /**
+     * Consumer that drops every chunk, to drain a stream and only count its length.
+     */
+    public static final ChunkConsumer DISCARD = new ChunkConsumer() {
+        @Override
+        public void onChunk(byte[] buffer, int offset, int length) {
+            // discard
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final BufferPool SHARED_POOL = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private final long maxBodySize;
+    private final BufferPool bufferPool;
+
+    /**
+     * @param maxBodySize the maximum number of bytes to read from a stream
+     */
+    public StreamingReader(final long maxBodySize) {
+        this(maxBodySize, SHARED_POOL);
+    }
+
+    public StreamingReader(final long maxBodySize, final BufferPool bufferPool) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("Invalid maximum body size: " + maxBodySize);
+        }
+        this.maxBodySize = maxBodySize;
+        this.bufferPool = bufferPool;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Read a stream to its end. The stream is not closed.
+     *
+     * @param in the stream
+     * @param consumer receives the chunks
+     * @return number of bytes read
+     * @throws BodyTooLargeException when the stream is longer than the maximum body size
+     * @throws IOException when reading fails or the consumer gives up
+     */
+    public long read(final InputStream in, final ChunkConsumer consumer) throws IOException {
+        final byte[] buffer = bufferPool.acquire();
+        try {
+            long total = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                total += count;
+                if (total > maxBodySize) {
+                    throw new BodyTooLargeException(maxBodySize);
+                }
+                consumer.onChunk(buffer, 0, count);
+            }
+            return total;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Read a stream to its end and decode it. Only use this for bodies that are meant to be kept.
+     *
+     * @param in the stream
+     * @param charsetName charset of the body
+     * @return body
+     * @throws BodyTooLargeException when the stream is longer than the maximum body size
+     * @throws IOException when reading fails
+     */
+    public String readString(final InputStream in, final String charsetName) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        read(in, new ChunkConsumer() {
+            @Override
+            public void onChunk(byte[] buffer, int offset, int length) {
+                body.write(buffer, offset, length);
+            }
+        });
+        try {
+            return body.toString(charsetName);
+        } catch (UnsupportedEncodingException e) {
+            throw new IOException("Unsupported charset: " + charsetName);
+        }
+    }
+
+    /**
+     * Consumer that feeds every chunk to a digest, to hash a body without keeping it.
+     *
+     * @param digest the digest, reset by the caller
+     * @return consumer
+     */
+    public static ChunkConsumer digestInto(final MessageDigest digest) {
+        return new ChunkConsumer() {
+            @Override
+            public void onChunk(byte[] buffer, int offset, int length) {
+                digest.update(buffer, offset, length);
+            }
+        };
+    }
+}
@@ -5,7 +5,7 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
-import android.os.Build;
+import android.os.Debug;
 
 import java.io.ByteArrayInputStream;
 import java.security.MessageDigest;
@@ -25,26 +25,63 @@ import be.idamf.android.tamperdetection.data.PublicKeyInfo;
  */
 public class TamperDetectionUtils {
 
+    private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7',
+            '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final Object SNAPSHOT_LOCK = new Object();
+    private static volatile SigningCertificateSnapshot signingCertificateSnapshot;
+    private static volatile DecodedFingerprint lastDecodedFingerprint;
+    private static final HookScanner HOOK_SCANNER = new HookScanner();
+
+    /**
+     * CertificateFactory and MessageDigest instances are not thread-safe, but are costly to look up:
+     * keep one per thread.
+     */
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = new ThreadLocal<CertificateFactory>();
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST = new ThreadLocal<MessageDigest>();
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = new ThreadLocal<MessageDigest>();
+
     /**
      * Check whether the app is currently running in the emulator.
      * There is no supported mechanism in the Android SDK to determine this.
      * We try to determine this by looking through the system properties,
-     * via the {@link android.os.Build} class.
+     * via the {@link android.os.Build} class, see {@link EmulatorDetector}.
+     * The Build values don't change, so the verdict is only computed once.
      *
      * @return true when the app seems to run on an emulator, otherwise false
      */
     public static boolean isRunningInEmulator() {
-        boolean runningInEmulator = false;
-        if (Build.BRAND.equalsIgnoreCase("generic")) {
-            runningInEmulator = true;
-        } else if (Build.MODEL.contains("google_sdk") || Build.MODEL.contains("Emulator") || Build.MODEL.contains("Android SDK")) {
-            runningInEmulator = true;
-        } else if (Build.PRODUCT.contains("sdk") || Build.PRODUCT.equalsIgnoreCase("full_x86")) {
-            runningInEmulator = true;
-        } else if (Build.HARDWARE.contains("goldfish")) {
-            runningInEmulator = true;
-        }
-        return runningInEmulator;
+        return EmulatorDetector.isRunningInEmulator();
+    }
+
+    /**
+     * Check whether a Java debugger is attached to this process, or the process waits for one.
+     * Unlike {@link #isDebuggable(android.content.Context, boolean)}, this can change at any moment.
+     *
+     * @return true when a debugger is attached, otherwise false
+     */
+    public static boolean isDebuggerAttached() {
+        return Debug.isDebuggerConnected() || Debug.waitingForDebugger();
+    }
+
+    /**
+     * Check whether a hooking framework (Xposed, Frida, Substrate) is loaded into this process,
+     * by scanning /proc/self/maps, see {@link HookScanner}.
+     * Frida can attach at any moment, so this is worth repeating.
+     *
+     * @return true when a hooking framework was found, otherwise false
+     */
+    public static boolean isHookingFrameworkPresent() {
+        return isHookingFrameworkPresent(HOOK_SCANNER);
+    }
+
+    /**
+     * Same as {@link #isHookingFrameworkPresent()}, with another maps file or other signatures.
+     *
+     * @param scanner scanner holding the maps file and signatures
+     * @return true when a hooking framework was found, otherwise false
+     */
+    public static boolean isHookingFrameworkPresent(final HookScanner scanner) {
+        return scanner.isAnyPresent();
     }
 
     /**
@@ -87,19 +124,23 @@ public class TamperDetectionUtils {
         boolean debuggable = false;
 
         try {
-            Signature[] signatures = getSignatures(context);
+            X509Certificate[] certificates = getSigningCertificateSnapshot(context).certificates();
 
-            for (int i = 0; i < signatures.length; i++) {
-                X509Certificate certificate = generateX509CertificateFromSignature(signatures[i]);
-                debuggable = certificate.getSubjectX500Principal().equals(DEBUG_CERTIFICATE_DN);
+            for (int i = 0; i < certificates.length; i++) {
+                debuggable = certificates[i].getSubjectX500Principal().equals(DEBUG_CERTIFICATE_DN);
                 if (debuggable) {
                     return true;
                 }
             }
         } catch (PackageManager.NameNotFoundException e) {
             // package not found - debuggable = false
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NAME_NOT_FOUND);
         } catch (CertificateException e) {
             // certificate factory non-instantiable - debuggable = false
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.CERTIFICATE);
+        } catch (NoSuchAlgorithmException e) {
+            // fingerprint algorithm not found - debuggable = false
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NO_SUCH_ALGORITHM);
         }
         return false;
     }
@@ -108,29 +149,131 @@ public class TamperDetectionUtils {
      * Check whether the signing key can be validated.
      *
      * @param context Context
-     * @param certificateToCheckAgainst the SHA1 of the signing certificate
+     * @param certificateToCheckAgainst the SHA1 of the signing certificate, as hex (colons are allowed)
      * @return true when the signing key appears valid, otherwise false
      */
     public static boolean isValidSigningKey(final Context context, final String certificateToCheckAgainst) {
+        return isValidSigningKey(context, decodePinnedFingerprint(certificateToCheckAgainst));
+    }
+
+    /**
+     * Check whether the signing key can be validated.
+     * The fingerprints are compared as bytes, in constant time.
+     *
+     * @param context Context
+     * @param sha1ToCheckAgainst the SHA1 of the signing certificate, or null when no valid fingerprint is known
+     * @return true when the signing key appears valid, otherwise false
+     */
+    public static boolean isValidSigningKey(final Context context, final byte[] sha1ToCheckAgainst) {
         try {
-            Signature[] signatures = getSignatures(context);
-            for (int i = 0; i < signatures.length; i++) {
-                X509Certificate certificate = generateX509CertificateFromSignature(signatures[i]);
-                String sha1 = getCertificateSHA1(certificate);
-                if (!certificateToCheckAgainst.equalsIgnoreCase(sha1)) {
+            byte[][] sha1Fingerprints = getSigningCertificateSnapshot(context).sha1Fingerprints();
+            for (int i = 0; i < sha1Fingerprints.length; i++) {
+                if (sha1ToCheckAgainst == null || !constantTimeEquals(sha1ToCheckAgainst, sha1Fingerprints[i])) {
                     return false;
                 }
             }
         } catch (PackageManager.NameNotFoundException e) {
             // package not found - leave valid true
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NAME_NOT_FOUND);
         } catch (CertificateException e) {
             // certificate factory non-instantiable - leave valid true
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.CERTIFICATE);
         } catch (NoSuchAlgorithmException e) {
             // algorithm not found - leave valid true
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NO_SUCH_ALGORITHM);
         }
         return true;
     }
 
+    /**
+     * Check whether every signer of the app is on an allowlist of SHA-256 and/or SHA-1 fingerprints.
+     *
+     * @param context Context
+     * @param verifier the allowed fingerprints
+     * @return true when the signing keys appear valid, otherwise false
+     */
+    public static boolean isValidSigningKey(final Context context, final SigningKeyVerifier verifier) {
+        try {
+            return verifier.verify(getSigningCertificateSnapshot(context));
+        } catch (PackageManager.NameNotFoundException e) {
+            // package not found - leave valid true
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NAME_NOT_FOUND);
+        } catch (CertificateException e) {
+            // certificate factory non-instantiable - leave valid true
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.CERTIFICATE);
+        } catch (NoSuchAlgorithmException e) {
+            // algorithm not found - leave valid true
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NO_SUCH_ALGORITHM);
+        }
+        return true;
+    }
+
+    /**
+     * Decode a hex fingerprint, as printed by keytool, to bytes.
+     *
+     * @param fingerprint hex string, optionally with colons between the bytes
+     * @return fingerprint bytes, or null when the string is not valid hex
+     */
+    public static byte[] unhexify(final String fingerprint) {
+        int digits = 0;
+        for (int i = 0; i < fingerprint.length(); i++) {
+            if (fingerprint.charAt(i) != ':') {
+                digits++;
+            }
+        }
+        if (digits % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[digits / 2];
+        int high = -1;
+        int index = 0;
+        for (int i = 0; i < fingerprint.length(); i++) {
+            char c = fingerprint.charAt(i);
+            if (c == ':') {
+                continue;
+            }
+            int value = Character.digit(c, 16);
+            if (value < 0) {
+                return null;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                bytes[index++] = (byte) ((high << 4) | value);
+                high = -1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Compare two byte arrays without bailing out on the first difference.
+     *
+     * @param a first array
+     * @param b second array
+     * @return true when both arrays hold the same bytes
+     */
+    static boolean constantTimeEquals(final byte[] a, final byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < a.length; i++) {
+            difference |= a[i] ^ b[i];
+        }
+        return difference == 0;
+    }
+
+    private static byte[] decodePinnedFingerprint(final String fingerprint) {
+        // the pinned fingerprint is normally a constant: decode it only once
+        DecodedFingerprint decoded = lastDecodedFingerprint;
+        if (decoded == null || !decoded.hex.equals(fingerprint)) {
+            decoded = new DecodedFingerprint(fingerprint, unhexify(fingerprint));
+            lastDecodedFingerprint = decoded;
+        }
+        return decoded.bytes;
+    }
+
     /**
      * Get basic information about the app's public key.
      * The Signature array from the PackageInfo object can contain multiple signatures, but
@@ -142,19 +285,17 @@ public class TamperDetectionUtils {
      */
     public static PublicKeyInfo getAppPublicKeyInfo(final Context context) {
         try {
-            Signature[] signatures = getSignatures(context);
-            // most apps are only signed once, as such: only get the first one here
-            X509Certificate certificate = generateX509CertificateFromSignature(signatures[0]);
-            PublicKeyInfo x509CertificateInfo = new PublicKeyInfo(
-                    certificate.getSubjectDN().toString(),
-                    certificate.getIssuerDN().toString(),
-                    certificate.getNotBefore(),
-                    certificate.getNotAfter());
-            return x509CertificateInfo;
+            // most apps are only signed once, as such: the snapshot only holds info about the first one
+            return getSigningCertificateSnapshot(context).getPublicKeyInfo();
         } catch (PackageManager.NameNotFoundException e) {
             // problem getting the signatures
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NAME_NOT_FOUND);
         } catch (CertificateException e) {
             // exception getting at the CertificateFactory
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.CERTIFICATE);
+        } catch (NoSuchAlgorithmException e) {
+            // fingerprint algorithm not found
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NO_SUCH_ALGORITHM);
         }
         return null;
     }
@@ -169,37 +310,131 @@ public class TamperDetectionUtils {
         return context.getPackageName();
     }
 
-    private static String getCertificateSHA1(X509Certificate certificate) throws NoSuchAlgorithmException, CertificateEncodingException {
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
-        byte[] der = certificate.getEncoded();
-        messageDigest.update(der);
-        byte[] digest = messageDigest.digest();
-        return hexify(digest);
+    /**
+     * Get the parsed signing certificates of the app.
+     * The snapshot is built on first use and then shared by all callers in the process,
+     * so the PackageManager is only queried and the certificates are only parsed once.
+     *
+     * @param context Context
+     * @return signing certificate snapshot
+     * @throws PackageManager.NameNotFoundException when the package info cannot be found
+     * @throws CertificateException when a signature cannot be parsed
+     * @throws NoSuchAlgorithmException when SHA-1 is not available
+     */
+    public static SigningCertificateSnapshot getSigningCertificateSnapshot(final Context context)
+            throws PackageManager.NameNotFoundException, CertificateException, NoSuchAlgorithmException {
+        SigningCertificateSnapshot snapshot = signingCertificateSnapshot;
+        if (snapshot == null) {
+            synchronized (SNAPSHOT_LOCK) {
+                snapshot = signingCertificateSnapshot;
+                if (snapshot == null) {
+                    snapshot = newSigningCertificateSnapshot(context);
+                    signingCertificateSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drop the signing certificate snapshot when the package was updated since it was taken.
+     * This only costs a package info lookup without signatures.
+     *
+     * @param context Context
+     */
+    public static void invalidateSigningCertificateSnapshotIfUpdated(final Context context) {
+        final SigningCertificateSnapshot snapshot = signingCertificateSnapshot;
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            long lastUpdateTime = context.getPackageManager().getPackageInfo(getPackageName(context), 0).lastUpdateTime;
+            if (lastUpdateTime != snapshot.getLastUpdateTime()) {
+                synchronized (SNAPSHOT_LOCK) {
+                    if (signingCertificateSnapshot == snapshot) {
+                        signingCertificateSnapshot = null;
+                    }
+                }
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // package not found - keep the snapshot
+            DetectionMetrics.recordError(DetectionMetrics.ErrorType.NAME_NOT_FOUND);
+        }
     }
 
-    private static Signature[] getSignatures(final Context context) throws PackageManager.NameNotFoundException {
+    static SigningCertificateSnapshot newSigningCertificateSnapshot(final Context context)
+            throws PackageManager.NameNotFoundException, CertificateException, NoSuchAlgorithmException {
         PackageInfo packageInfo = context.getPackageManager().getPackageInfo( getPackageName(context), PackageManager.GET_SIGNATURES );
         Signature[] signatures = packageInfo.signatures;
-        return signatures;
+        X509Certificate[] certificates = new X509Certificate[signatures.length];
+        byte[][] sha1Fingerprints = new byte[signatures.length][];
+        byte[][] sha256Fingerprints = new byte[signatures.length][];
+        for (int i = 0; i < signatures.length; i++) {
+            certificates[i] = generateX509CertificateFromSignature(signatures[i]);
+            byte[] der = certificates[i].getEncoded();
+            sha1Fingerprints[i] = digest(SHA1_DIGEST, "SHA-1", der);
+            sha256Fingerprints[i] = digest(SHA256_DIGEST, "SHA-256", der);
+        }
+        PublicKeyInfo publicKeyInfo = null;
+        if (certificates.length > 0) {
+            publicKeyInfo = new PublicKeyInfo(
+                    certificates[0].getSubjectDN().toString(),
+                    certificates[0].getIssuerDN().toString(),
+                    certificates[0].getNotBefore(),
+                    certificates[0].getNotAfter());
+        }
+        return new SigningCertificateSnapshot(packageInfo.lastUpdateTime, certificates, sha1Fingerprints,
+                sha256Fingerprints, publicKeyInfo);
     }
 
-    private static X509Certificate generateX509CertificateFromSignature(final Signature signature) throws CertificateException {
-        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+    static byte[] getCertificateSHA1(X509Certificate certificate) throws NoSuchAlgorithmException, CertificateEncodingException {
+        return digest(SHA1_DIGEST, "SHA-1", certificate.getEncoded());
+    }
+
+    private static byte[] digest(final ThreadLocal<MessageDigest> digests, final String algorithm, final byte[] data)
+            throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = digests.get();
+        if (messageDigest == null) {
+            messageDigest = MessageDigest.getInstance(algorithm);
+            digests.set(messageDigest);
+        }
+        // digest() resets the instance, ready for the next call on this thread
+        return messageDigest.digest(data);
+    }
+
+    static X509Certificate generateX509CertificateFromSignature(final Signature signature) throws CertificateException {
+        CertificateFactory certificateFactory = CERTIFICATE_FACTORY.get();
+        if (certificateFactory == null) {
+            certificateFactory = CertificateFactory.getInstance("X.509");
+            CERTIFICATE_FACTORY.set(certificateFactory);
+        }
         ByteArrayInputStream inputStream = new ByteArrayInputStream(signature.toByteArray());
         X509Certificate certificate = (X509Certificate) certificateFactory.generateCertificate(inputStream);
         return certificate;
     }
 
-    private static String hexify (byte bytes[]) {
-        char[] hexDigits = {'0', '1', '2', '3', '4', '5', '6', '7',
-                '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
-
-        StringBuffer buf = new StringBuffer(bytes.length * 2);
+    /**
+     * Encode bytes as lowercase hex, e.g. for logging a fingerprint.
+     *
+     * @param bytes bytes to encode
+     * @return hex string
+     */
+    public static String hexify (byte bytes[]) {
+        char[] chars = new char[bytes.length * 2];
         for (int i = 0; i < bytes.length; ++i) {
-            buf.append(hexDigits[(bytes[i] & 0xf0) >> 4]);
-            buf.append(hexDigits[bytes[i] & 0x0f]);
+            chars[2 * i] = HEX_DIGITS[(bytes[i] & 0xf0) >> 4];
+            chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0f];
         }
-        return buf.toString();
+        return new String(chars);
     }
 
+    private static final class DecodedFingerprint {
+        final String hex;
+        final byte[] bytes;
+
+        DecodedFingerprint(final String hex, final byte[] bytes) {
+            this.hex = hex;
+            this.bytes = bytes;
+        }
+    }
 }
@@ -0,0 +1,314 @@
+package be.idamf.android.tamperdetection.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import be.idamf.android.tamperdetection.data.TamperReport;
+
+/**
+ * Queue of detection events, waiting to be uploaded by a {@link TelemetryUploader}.
+ * Every event is a timestamp and a {@link TamperReport}, {@link #EVENT_SIZE} bytes.
+ * <p/>
+ * The events live in a ring buffer in a memory-mapped file of fixed size in app-private storage,
+ * so the queue never takes more than {@link #getFileSize()} bytes: when it is full, the oldest event is dropped.
+ * Appending only writes to the mapping, without a system call or an fsync: the kernel writes the pages back,
+ * and they survive a crash of the app. Every slot has a CRC32, so an event torn by a crash is skipped.
+ * <p/>
+ * File layout: a header of magic, format version, slot size, capacity, head and tail sequence,
+ * followed by capacity slots of a CRC32 and an event. The event with sequence s is in slot s % capacity.
+ * The slot size follows the number of checks of {@link TamperReport}: a file written before a check was added
+ * has smaller slots, and its events are converted to the current layout when the queue is opened.
+ */
+public final class TelemetryQueue {
+
+    /**
+     * Size of an event: the timestamp in millis followed by the serialized report.
+     */
+    public static final int EVENT_SIZE = 8 + TamperReport.SERIALIZED_SIZE;
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final String FILE_NAME = "telemetry.bin";
+    private static final int MAGIC = 0x54445451; // 'TDTQ'
+    private static final int FORMAT_VERSION = 1;
+    private static final int SLOT_SIZE = 4 + EVENT_SIZE;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+
+    private static TelemetryQueue instance;
+
+    private final int capacity;
+    private final ByteBuffer buffer;
+    private final byte[] slot = new byte[SLOT_SIZE];
+    private final CRC32 crc = new CRC32();
+    private long head;
+    private long tail;
+    private long dropped;
+
+    /**
+     * Open the queue in a file, creating or resetting it when it does not hold a queue of the same layout.
+     * When the file cannot be mapped, the queue is kept in memory only.
+     *
+     * @param file the file
+     * @param capacity maximum number of events
+     */
+    TelemetryQueue(final File file, final int capacity) {
+        this.capacity = capacity;
+        // before the mapping resizes the file
+        final List<byte[]> olderEvents = readOlderEvents(file);
+        buffer = map(file, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        head = buffer.getLong(HEAD_OFFSET);
+        tail = buffer.getLong(TAIL_OFFSET);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != SLOT_SIZE
+                || buffer.getInt(12) != capacity || head < 0 || tail < head || tail - head > capacity) {
+            head = 0;
+            tail = 0;
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putInt(8, SLOT_SIZE);
+            buffer.putInt(12, capacity);
+            writePositions();
+            for (byte[] event : olderEvents) {
+                System.arraycopy(event, 0, slot, 4, EVENT_SIZE);
+                appendSlot();
+            }
+        }
+    }
+
+    public static synchronized TelemetryQueue getInstance(final Context context) {
+        if (instance == null) {
+            instance = new TelemetryQueue(new File(context.getFilesDir(), FILE_NAME), DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Add an event, dropping the oldest one when the queue is full.
+     *
+     * @param timestampMillis when the report was made
+     * @param report the report
+     */
+    public synchronized void append(final long timestampMillis, final TamperReport report) {
+        writeLong(slot, 4, timestampMillis);
+        report.writeTo(slot, 12);
+        appendSlot();
+    }
+
+    private void appendSlot() {
+        crc.reset();
+        crc.update(slot, 4, EVENT_SIZE);
+        writeInt(slot, 0, (int) crc.getValue());
+        buffer.position(slotOffset(tail));
+        buffer.put(slot, 0, SLOT_SIZE);
+        if (tail - head == capacity) {
+            head++;
+            dropped++;
+        }
+        tail++;
+        writePositions();
+    }
+
+    /**
+     * Copy the oldest events, without removing them.
+     * Events whose checksum does not match are left out.
+     *
+     * @param maxEvents maximum number of events
+     * @return the events, or null when the queue is empty
+     */
+    public synchronized Batch peek(final int maxEvents) {
+        if (head == tail) {
+            return null;
+        }
+        final long end = Math.min(tail, head + maxEvents);
+        final byte[] events = new byte[(int) (end - head) * EVENT_SIZE];
+        int count = 0;
+        for (long sequence = head; sequence < end; sequence++) {
+            buffer.position(slotOffset(sequence));
+            buffer.get(slot, 0, SLOT_SIZE);
+            crc.reset();
+            crc.update(slot, 4, EVENT_SIZE);
+            if (readInt(slot, 0) == (int) crc.getValue()) {
+                System.arraycopy(slot, 4, events, count * EVENT_SIZE, EVENT_SIZE);
+                count++;
+            }
+        }
+        return new Batch(events, count, end);
+    }
+
+    /**
+     * Remove the events of a batch, once they have been uploaded.
+     * Events of the batch that were dropped in the meantime are not removed twice.
+     *
+     * @param batch a batch returned by {@link #peek(int)}
+     */
+    public synchronized void remove(final Batch batch) {
+        if (batch.endSequence > head) {
+            head = Math.min(batch.endSequence, tail);
+            writePositions();
+        }
+    }
+
+    /**
+     * @return number of queued events
+     */
+    public synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return number of events dropped because the queue was full, since it was opened
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return the fixed size of the queue file, in bytes
+     */
+    public long getFileSize() {
+        return buffer.capacity();
+    }
+
+    private int slotOffset(final long sequence) {
+        return HEADER_SIZE + (int) (sequence % capacity) * SLOT_SIZE;
+    }
+
+    private void writePositions() {
+        buffer.putLong(HEAD_OFFSET, head);
+        buffer.putLong(TAIL_OFFSET, tail);
+    }
+
+    /**
+     * Read the events of a queue file with smaller slots, written for fewer checks.
+     *
+     * @param file the file
+     * @return the valid events, in the current event layout; empty when the file holds no such queue
+     */
+    private static List<byte[]> readOlderEvents(final File file) {
+        final List<byte[]> events = new ArrayList<byte[]>();
+        if (!file.exists()) {
+            return events;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            if (randomAccessFile.length() < HEADER_SIZE || randomAccessFile.readInt() != MAGIC
+                    || randomAccessFile.readInt() != FORMAT_VERSION) {
+                return events;
+            }
+            final int slotSize = randomAccessFile.readInt();
+            final int capacity = randomAccessFile.readInt();
+            final long head = randomAccessFile.readLong();
+            final long tail = randomAccessFile.readLong();
+            if (slotSize <= 12 || slotSize >= SLOT_SIZE || capacity <= 0 || head < 0 || tail < head
+                    || tail - head > capacity || randomAccessFile.length() < HEADER_SIZE + (long) capacity * slotSize) {
+                return events;
+            }
+            final byte[] olderSlot = new byte[slotSize];
+            final CRC32 crc = new CRC32();
+            for (long sequence = head; sequence < tail; sequence++) {
+                randomAccessFile.seek(HEADER_SIZE + (sequence % capacity) * slotSize);
+                randomAccessFile.readFully(olderSlot);
+                crc.reset();
+                crc.update(olderSlot, 4, slotSize - 4);
+                if (readInt(olderSlot, 0) != (int) crc.getValue()) {
+                    continue;
+                }
+                try {
+                    final byte[] event = new byte[EVENT_SIZE];
+                    System.arraycopy(olderSlot, 4, event, 0, 8);
+                    TamperReport.readFrom(olderSlot, 12).writeTo(event, 8);
+                    events.add(event);
+                } catch (IllegalArgumentException e) {
+                    // not a report of a known format - skip the event
+                }
+            }
+        } catch (IOException e) {
+            // unreadable - start with an empty queue
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // failed to close file
+                }
+            }
+        }
+        return events;
+    }
+
+    private static ByteBuffer map(final File file, final long size) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            if (randomAccessFile.length() != size) {
+                randomAccessFile.setLength(size);
+            }
+            // the mapping stays valid after the file is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            // no storage - keep the events in memory until the process dies
+            return ByteBuffer.allocate((int) size);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // failed to close file
+                }
+            }
+        }
+    }
+
+    private static void writeInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static void writeLong(final byte[] bytes, final int offset, final long value) {
+        writeInt(bytes, offset, (int) (value >>> 32));
+        writeInt(bytes, offset + 4, (int) value);
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * Consecutive events taken from the queue, {@link #EVENT_SIZE} bytes each.
+     */
+    public static final class Batch {
+        private final byte[] events;
+        private final int count;
+        private final long endSequence;
+
+        Batch(final byte[] events, final int count, final long endSequence) {
+            this.events = events;
+            this.count = count;
+            this.endSequence = endSequence;
+        }
+
+        /**
+         * @return the events, back to back; only the first {@link #getCount()} are valid
+         */
+        public byte[] getEvents() {
+            return events;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package be.idamf.android.tamperdetection.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Drains a {@link TelemetryQueue} in the background: every interval, the queued events are taken in batches,
+ * gzipped and handed to a {@link Transport}. Events are only removed from the queue once their batch was sent,
+ * so a failed upload is retried later, with the interval doubled up to {@link #MAX_BACKOFF_MILLIS}.
+ * However many events are appended in between, an interval costs one upload per batch.
+ */
+public final class TelemetryUploader {
+
+    /**
+     * Sends a batch of events somewhere.
+     */
+    public interface Transport {
+        /**
+         * @param payload gzipped events of {@link TelemetryQueue#EVENT_SIZE} bytes each, back to back
+         * @param length number of valid bytes in payload
+         * @param eventCount number of events in the payload
+         * @throws IOException when the batch was not delivered; it is sent again later
+         */
+        void send(byte[] payload, int length, int eventCount) throws IOException;
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    public static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private final TelemetryQueue queue;
+    private final Transport transport;
+    private final int batchSize;
+    private final long intervalMillis;
+    private final PayloadStream payload = new PayloadStream();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            drainNow();
+        }
+    };
+
+    private ScheduledThreadPoolExecutor executor;
+    private long delayMillis;
+
+    public TelemetryUploader(final TelemetryQueue queue, final Transport transport) {
+        this(queue, transport, DEFAULT_BATCH_SIZE, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param queue the queue to drain
+     * @param transport where the batches go
+     * @param batchSize maximum number of events per upload
+     * @param intervalMillis time between two drains
+     */
+    public TelemetryUploader(final TelemetryQueue queue, final Transport transport, final int batchSize,
+                             final long intervalMillis) {
+        this.queue = queue;
+        this.transport = transport;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Start draining the queue, the first time after one interval.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TelemetryUploader");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        delayMillis = intervalMillis;
+        executor.schedule(drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drain the queue now, instead of waiting for the interval, e.g. before the app goes to the background.
+     */
+    public synchronized void flush() {
+        if (executor != null) {
+            try {
+                executor.execute(flush);
+            } catch (RejectedExecutionException e) {
+                // stopped meanwhile - the events stay queued
+            }
+        }
+    }
+
+    /**
+     * Stop uploading. An upload in progress, or a {@link #flush()} requested before, still completes;
+     * the periodic drains are cancelled.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Send the queued events, one batch at a time. Runs on the uploader thread only.
+     * Events appended while draining wait for the next drain.
+     *
+     * @return true when all batches were sent
+     */
+    boolean drainNow() {
+        TelemetryQueue.Batch batch;
+        int batches = (queue.size() + batchSize - 1) / batchSize;
+        while (batches-- > 0 && (batch = queue.peek(batchSize)) != null) {
+            if (batch.getCount() > 0) {
+                try {
+                    compress(batch);
+                    transport.send(payload.getBuffer(), payload.size(), batch.getCount());
+                } catch (IOException e) {
+                    // upload failed - retried after the backoff
+                    return false;
+                }
+            }
+            queue.remove(batch);
+        }
+        return true;
+    }
+
+    private void drain() {
+        final boolean drained = drainNow();
+        synchronized (this) {
+            if (executor == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            delayMillis = drained ? intervalMillis : Math.min(delayMillis * 2, MAX_BACKOFF_MILLIS);
+            try {
+                executor.schedule(drain, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // stopped meanwhile
+            }
+        }
+    }
+
+    private void compress(final TelemetryQueue.Batch batch) throws IOException {
+        payload.reset();
+        final GZIPOutputStream out = new GZIPOutputStream(payload);
+        out.write(batch.getEvents(), 0, batch.getCount() * TelemetryQueue.EVENT_SIZE);
+        out.close();
+    }
+
+    /**
+     * Output stream that lets the transport read its buffer without a copy; reused for every batch.
+     */
+    private static final class PayloadStream extends ByteArrayOutputStream {
+        PayloadStream() {
+            super(8192);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package be.idamf.android.tamperdetection.util;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import be.idamf.android.tamperdetection.data.CheckType;
+import be.idamf.android.tamperdetection.data.DetectionResult;
+
+/**
+ * Keeps the last detection verdict in app-private storage, so it can be shown immediately
+ * at startup while a fresh check runs in the background.
+ * The verdict is stored as a small binary record with a CRC32 checksum, and is only served
+ * for the same {@link android.os.Build#FINGERPRINT}, the same APK lastUpdateTime and the same
+ * {@link #RULES_VERSION}: an OS update, an app update or a change in the checks invalidates it.
+ * <p/>
+ * The first {@link #getInstance(android.content.Context)} asks the PackageManager and the first {@link #get()}
+ * reads the file, so make those calls off the main thread. After that the verdict is kept in memory,
+ * and a {@link #put(be.idamf.android.tamperdetection.data.DetectionResult)} writing to disk does not block readers.
+ */
+public final class VerdictCache {
+
+    /**
+     * Bump whenever the checks or their meaning change, to drop verdicts of older versions.
+     */
+    public static final int RULES_VERSION = 7;
+
+    private static final String FILE_NAME = "verdict.bin";
+    private static final int MAGIC = 0x54445643; // 'TDVC'
+    private static final byte FORMAT_VERSION = 1;
+
+    private static VerdictCache instance;
+
+    private final File file;
+    private final String buildFingerprint;
+    private final long lastUpdateTime;
+    private final Object writeLock = new Object();
+    private DetectionResult verdict;
+    private boolean loaded;
+
+    VerdictCache(final File file, final String buildFingerprint, final long lastUpdateTime) {
+        this.file = file;
+        this.buildFingerprint = buildFingerprint != null ? buildFingerprint : "";
+        this.lastUpdateTime = lastUpdateTime;
+    }
+
+    public static synchronized VerdictCache getInstance(final Context context) {
+        if (instance == null) {
+            long lastUpdateTime = 0;
+            try {
+                lastUpdateTime = context.getPackageManager()
+                        .getPackageInfo(TamperDetectionUtils.getPackageName(context), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                // package not found - key on 0
+            }
+            instance = new VerdictCache(new File(context.getFilesDir(), FILE_NAME), Build.FINGERPRINT, lastUpdateTime);
+        }
+        return instance;
+    }
+
+    /**
+     * The last stored verdict, read from disk on first use.
+     *
+     * @return last verdict, or null when there is none for this build, app version and rules version
+     */
+    public synchronized DetectionResult get() {
+        if (!loaded) {
+            verdict = read();
+            loaded = true;
+        }
+        return verdict;
+    }
+
+    /**
+     * Store a new verdict. Checks that are not part of the result keep their previously stored outcome.
+     * The verdict is served from memory right away; the caller waits for it to be written to disk.
+     *
+     * @param result result of a detection run
+     */
+    public void put(final DetectionResult result) {
+        synchronized (this) {
+            final Map<CheckType, Boolean> merged = new EnumMap<CheckType, Boolean>(CheckType.class);
+            final DetectionResult previous = get();
+            if (previous != null) {
+                for (CheckType checkType : previous.getCheckTypes()) {
+                    merged.put(checkType, previous.getResult(checkType));
+                }
+            }
+            for (CheckType checkType : result.getCheckTypes()) {
+                merged.put(checkType, result.getResult(checkType));
+            }
+            verdict = new DetectionResult(merged, result.getElapsedMillis());
+        }
+        synchronized (writeLock) {
+            // write the latest verdict, so concurrent puts can't leave an older one on disk
+            final DetectionResult latest;
+            synchronized (this) {
+                latest = verdict;
+            }
+            if (latest != null) {
+                write(latest);
+            }
+        }
+    }
+
+    /**
+     * Forget the stored verdict.
+     */
+    public void clear() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                verdict = null;
+                loaded = true;
+                if (!file.delete() && file.exists()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    byte[] encode(final DetectionResult result) throws IOException {
+        long present = 0;
+        long detected = 0;
+        for (CheckType checkType : result.getCheckTypes()) {
+            present |= 1L << checkType.ordinal();
+            if (result.isDetected(checkType)) {
+                detected |= 1L << checkType.ordinal();
+            }
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(RULES_VERSION);
+        out.writeLong(lastUpdateTime);
+        out.writeUTF(buildFingerprint);
+        out.writeLong(present);
+        out.writeLong(detected);
+        out.writeLong(result.getElapsedMillis());
+        out.flush();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    DetectionResult decode(final byte[] record) throws IOException {
+        if (record.length < 4) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length - 4);
+        final int checksum = (record[record.length - 4] & 0xff) << 24 | (record[record.length - 3] & 0xff) << 16
+                | (record[record.length - 2] & 0xff) << 8 | (record[record.length - 1] & 0xff);
+        if (checksum != (int) crc.getValue()) {
+            return null;
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 0, record.length - 4));
+        if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION || in.readInt() != RULES_VERSION
+                || in.readLong() != lastUpdateTime || !buildFingerprint.equals(in.readUTF())) {
+            return null;
+        }
+        final long present = in.readLong();
+        final long detected = in.readLong();
+        final long elapsedMillis = in.readLong();
+        final Map<CheckType, Boolean> results = new EnumMap<CheckType, Boolean>(CheckType.class);
+        for (CheckType checkType : CheckType.values()) {
+            if ((present & (1L << checkType.ordinal())) != 0) {
+                results.put(checkType, (detected & (1L << checkType.ordinal())) != 0);
+            }
+        }
+        return new DetectionResult(results, elapsedMillis);
+    }
+
+    private DetectionResult read() {
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            final byte[] record = new byte[(int) Math.min(file.length(), 4096)];
+            new DataInputStream(in).readFully(record);
+            return decode(record);
+        } catch (IOException e) {
+            // unreadable or corrupt record - no verdict
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // failed to close inputStream
+                }
+            }
+        }
+    }
+
+    private void write(final DetectionResult result) {
+        final File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(encode(result));
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            // verdict not persisted - it is recomputed on the next run anyway
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // failed to close outputStream
+                }
+            }
+        }
+    }
+}